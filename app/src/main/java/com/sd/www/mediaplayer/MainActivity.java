@@ -10,8 +10,6 @@ import android.widget.Button;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
-import com.sd.lib.looper.FLooper;
-import com.sd.lib.looper.impl.FSimpleLooper;
 import com.sd.lib.player.FMediaPlayer;
 import com.sd.www.mediaplayer.utils.FDateUtil;
 
@@ -28,8 +26,6 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private TextView tv_duration;
     private SeekBar sb_progress;
 
-    private final FLooper mLooper = new FSimpleLooper();
-
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
@@ -108,32 +104,23 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             @Override
             public void onStateChanged(FMediaPlayer player, FMediaPlayer.State oldState, FMediaPlayer.State newState)
             {
-                if (newState == FMediaPlayer.State.Playing)
-                    mLooper.start(mPlayTimeRunnable);
-                else if (newState == FMediaPlayer.State.Stopped || newState == FMediaPlayer.State.Paused)
-                    mLooper.stop();
-
                 Log.i(TAG, "onStateChanged:" + newState);
             }
         });
-    }
-
-    private final Runnable mPlayTimeRunnable = new Runnable()
-    {
-        @Override
-        public void run()
+        mPlayer.setOnProgressCallback(new FMediaPlayer.OnProgressCallback()
         {
-            final int currentPosition = mPlayer.getCurrentPosition();
-            final int totalDuration = mPlayer.getDuration();
-
-            sb_progress.setMax(totalDuration);
-            sb_progress.setProgress(currentPosition);
+            @Override
+            public void onProgress(FMediaPlayer player, int currentPosition, int totalDuration)
+            {
+                sb_progress.setMax(totalDuration);
+                sb_progress.setProgress(currentPosition);
 
-            final String total = FDateUtil.formatDuring2hhmmss(totalDuration);
-            final String current = FDateUtil.formatDuring2hhmmss(currentPosition);
-            tv_duration.setText(current + "/" + total);
-        }
-    };
+                final String total = FDateUtil.formatDuring2hhmmss(totalDuration);
+                final String current = FDateUtil.formatDuring2hhmmss(currentPosition);
+                tv_duration.setText(current + "/" + total);
+            }
+        });
+    }
 
     @Override
     public void onClick(View v)
@@ -167,6 +154,5 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     {
         super.onDestroy();
         mPlayer.release();
-        mLooper.stop();
     }
 }
@@ -0,0 +1,53 @@
+package com.sd.lib.player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 命令合法性检查，以及不同状态下的查询方法
+ */
+@State(Scope.Thread)
+public class CommandLegalityBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int playerCount;
+
+    private PlayerStateMachine[] mStateMachines;
+
+    @Setup
+    public void setup()
+    {
+        final FMediaPlayer.State[] states = FMediaPlayer.State.values();
+        mStateMachines = new PlayerStateMachine[playerCount];
+        for (int i = 0; i < playerCount; i++)
+        {
+            mStateMachines[i] = new PlayerStateMachine(new FakePlayerEngine(), null);
+            mStateMachines[i].setState(states[i % states.length]);
+        }
+    }
+
+    @Benchmark
+    public void canExecute(Blackhole blackhole)
+    {
+        for (PlayerStateMachine item : mStateMachines)
+        {
+            blackhole.consume(item.canExecute(PlayerStateMachine.CMD_START));
+            blackhole.consume(item.canExecute(PlayerStateMachine.CMD_PAUSE));
+            blackhole.consume(item.canExecute(PlayerStateMachine.CMD_STOP));
+        }
+    }
+
+    @Benchmark
+    public void query(Blackhole blackhole)
+    {
+        for (PlayerStateMachine item : mStateMachines)
+        {
+            blackhole.consume(item.getCurrentPosition());
+            blackhole.consume(item.getDuration());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.sd.lib.player;
+
+/**
+ * 代替MediaPlayer的假引擎，只记录调用次数
+ */
+class FakePlayerEngine implements PlayerEngine
+{
+    int callCount;
+    int position;
+
+    @Override
+    public void prepareAsync()
+    {
+        callCount++;
+    }
+
+    @Override
+    public void start()
+    {
+        callCount++;
+    }
+
+    @Override
+    public void pause()
+    {
+        callCount++;
+    }
+
+    @Override
+    public void stop()
+    {
+        callCount++;
+    }
+
+    @Override
+    public int getDuration()
+    {
+        return 60 * 60 * 1000;
+    }
+
+    @Override
+    public int getCurrentPosition()
+    {
+        position += 250;
+        return position;
+    }
+}
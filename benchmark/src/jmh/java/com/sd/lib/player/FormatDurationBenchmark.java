@@ -0,0 +1,45 @@
+package com.sd.lib.player;
+
+import com.sd.www.mediaplayer.utils.FDateUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 每次进度回调格式化当前进度和总时长
+ */
+@State(Scope.Thread)
+public class FormatDurationBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int playerCount;
+
+    private FakePlayerEngine[] mEngines;
+
+    @Setup
+    public void setup()
+    {
+        mEngines = new FakePlayerEngine[playerCount];
+        for (int i = 0; i < playerCount; i++)
+        {
+            mEngines[i] = new FakePlayerEngine();
+        }
+    }
+
+    /**
+     * 模拟一次进度触发，所有播放器各格式化一次
+     */
+    @Benchmark
+    public void progressTick(Blackhole blackhole)
+    {
+        for (FakePlayerEngine item : mEngines)
+        {
+            blackhole.consume(FDateUtil.formatDuring2hhmmss(item.getCurrentPosition()));
+            blackhole.consume(FDateUtil.formatDuring2hhmmss(item.getDuration()));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.sd.lib.player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ObserverHolder的添加、移除和遍历，xxxBaseline是改为写时复制数组之前的ConcurrentHashMap实现，用-prof gc对比每次操作的分配
+ */
+@State(Scope.Thread)
+public class ObserverHolderBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int observerCount;
+
+    private ObserverHolder<Object> mHolder;
+    private BaselineObserverHolder<Object> mBaselineHolder;
+    private final Object mExtra = new Object();
+    private Blackhole mBlackhole;
+
+    private final ObserverHolder.ForeachCallback<Object> mCallback = new ObserverHolder.ForeachCallback<Object>()
+    {
+        @Override
+        public void onNext(Object observer)
+        {
+            mBlackhole.consume(observer);
+        }
+    };
+
+    @Setup
+    public void setup(Blackhole blackhole)
+    {
+        mBlackhole = blackhole;
+        mHolder = new ObserverHolder<>();
+        mBaselineHolder = new BaselineObserverHolder<>();
+        for (int i = 0; i < observerCount; i++)
+        {
+            final Object observer = new Object();
+            mHolder.add(observer);
+            mBaselineHolder.add(observer);
+        }
+    }
+
+    @Benchmark
+    public void foreach()
+    {
+        mHolder.foreach(mCallback);
+    }
+
+    @Benchmark
+    public void addRemove()
+    {
+        mHolder.add(mExtra);
+        mHolder.remove(mExtra);
+    }
+
+    @Benchmark
+    public void foreachBaseline()
+    {
+        mBaselineHolder.foreach(mCallback);
+    }
+
+    @Benchmark
+    public void addRemoveBaseline()
+    {
+        mBaselineHolder.add(mExtra);
+        mBaselineHolder.remove(mExtra);
+    }
+
+    /**
+     * 原来的ObserverHolder，遍历的时候创建keySet的迭代器
+     */
+    private static final class BaselineObserverHolder<T>
+    {
+        private final Map<T, String> mHolder = new ConcurrentHashMap<>();
+
+        public void add(T observer)
+        {
+            if (observer == null)
+                return;
+
+            mHolder.put(observer, "");
+        }
+
+        public void remove(T observer)
+        {
+            if (observer == null)
+                return;
+
+            mHolder.remove(observer);
+        }
+
+        public void foreach(ObserverHolder.ForeachCallback<T> callback)
+        {
+            for (T observer : mHolder.keySet())
+            {
+                callback.onNext(observer);
+            }
+        }
+    }
+}
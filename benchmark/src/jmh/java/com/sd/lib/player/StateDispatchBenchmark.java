@@ -0,0 +1,86 @@
+package com.sd.lib.player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 状态机经过{@link StateChangeDispatcher}（{@link StateChangeQueue}和{@link ObserverHolder}）通知所有观察者，
+ * 和FMediaPlayer使用{@link FMediaPlayer#DIRECT_EXECUTOR}的时候一样；用-prof gc运行，gc.alloc.rate.norm应该为0
+ */
+@State(Scope.Thread)
+public class StateDispatchBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int observerCount;
+
+    private PlayerStateMachine mStateMachine;
+    private StateChangeDispatcher mDispatcher;
+    private Blackhole mBlackhole;
+    /**
+     * true-只加入队列，由基准测试方法统一分发
+     */
+    private boolean mDeferDispatch;
+
+    @Setup
+    public void setup(Blackhole blackhole)
+    {
+        mBlackhole = blackhole;
+        mDispatcher = new StateChangeDispatcher(null);
+        for (int i = 0; i < observerCount; i++)
+        {
+            mDispatcher.add(new FMediaPlayer.OnStateChangeCallback()
+            {
+                @Override
+                public void onStateChanged(FMediaPlayer player, FMediaPlayer.State oldState, FMediaPlayer.State newState)
+                {
+                    mBlackhole.consume(newState);
+                }
+            });
+        }
+
+        mStateMachine = new PlayerStateMachine(new FakePlayerEngine(), new PlayerStateMachine.StateListener()
+        {
+            @Override
+            public void onStateChanged(FMediaPlayer.State oldState, FMediaPlayer.State newState)
+            {
+                if (mDispatcher.offer(oldState, newState) && !mDeferDispatch)
+                    mDispatcher.run();
+            }
+        });
+        mStateMachine.setState(FMediaPlayer.State.Prepared);
+    }
+
+    private boolean toggle()
+    {
+        if (mStateMachine.getState() == FMediaPlayer.State.Playing)
+            return mStateMachine.execute(PlayerStateMachine.CMD_PAUSE);
+        else
+            return mStateMachine.execute(PlayerStateMachine.CMD_START);
+    }
+
+    /**
+     * Playing和Paused之间切换，每次操作包含一次状态变化、一次分发和observerCount次通知
+     */
+    @Benchmark
+    public boolean startPause()
+    {
+        mDeferDispatch = false;
+        return toggle();
+    }
+
+    /**
+     * 连续两次状态变化合并成一次分发，和提交到Executor或者主线程的时候一样
+     */
+    @Benchmark
+    public void startPauseCoalesced()
+    {
+        mDeferDispatch = true;
+        mBlackhole.consume(toggle());
+        mBlackhole.consume(toggle());
+        mDispatcher.run();
+    }
+}
@@ -0,0 +1,369 @@
+package com.sd.lib.player;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Arrays;
+
+/**
+ * 播放位置触发器，在指定的播放位置（毫秒）回调，通过{@link FMediaPlayer#getCuePointScheduler()}获取
+ * <p>
+ * 触发点按时间排序保存在数组里，只为下一个触发点安排一次定时，seek、暂停、缓冲、播放完毕和循环回到开头的时候重新安排，不需要轮询播放位置。
+ * 回调在主线程执行
+ */
+public final class CuePointScheduler
+{
+    /**
+     * 提前这个时间以内的触发点当作已经到达（毫秒）
+     */
+    private static final long TOLERANCE = 5;
+    /**
+     * 循环播放的时候，在结尾之后多等这个时间再检查是否回到了开头（毫秒）；检查的时候读取真实位置，
+     * 推算的位置在下一次同步之前会一直超过总时长，看不出已经回到了开头
+     */
+    private static final long LOOP_CHECK_DELAY = 50;
+
+    private final FMediaPlayer mPlayer;
+    private final PlaybackClock mClock;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private long[] mTimes = new long[16];
+    private int[] mIds = new int[16];
+    private Callback[] mCallbacks = new Callback[16];
+    private int mSize;
+
+    /**
+     * 下一个要触发的位置
+     */
+    private int mNextIndex;
+    private long mLastPosition;
+    private int mPendingSeekPosition = -1;
+    /**
+     * 下一次update()是循环检查
+     */
+    private boolean mLoopCheck;
+
+    CuePointScheduler(FMediaPlayer player, PlaybackClock clock)
+    {
+        mPlayer = player;
+        mClock = clock;
+    }
+
+    /**
+     * 添加触发点
+     *
+     * @param time     播放位置（毫秒）
+     * @param id       回调的时候传回的id
+     * @param callback
+     */
+    public synchronized void add(long time, int id, Callback callback)
+    {
+        if (time < 0)
+            throw new IllegalArgumentException("time must be >= 0");
+        if (callback == null)
+            throw new IllegalArgumentException("callback is null");
+
+        ensureCapacity(mSize + 1);
+
+        // 相同时间的触发点按添加顺序触发
+        final int index = upperBound(time);
+        final int count = mSize - index;
+        System.arraycopy(mTimes, index, mTimes, index + 1, count);
+        System.arraycopy(mIds, index, mIds, index + 1, count);
+        System.arraycopy(mCallbacks, index, mCallbacks, index + 1, count);
+        mTimes[index] = time;
+        mIds[index] = id;
+        mCallbacks[index] = callback;
+        mSize++;
+
+        if (index < mNextIndex)
+            mNextIndex++;
+        postUpdate();
+    }
+
+    /**
+     * 批量添加触发点，只排序一次
+     *
+     * @param times    播放位置（毫秒）
+     * @param ids      和times一一对应的id，为null的话用times的下标作为id
+     * @param callback
+     */
+    public synchronized void addAll(long[] times, int[] ids, Callback callback)
+    {
+        if (callback == null)
+            throw new IllegalArgumentException("callback is null");
+        if (ids != null && ids.length != times.length)
+            throw new IllegalArgumentException("ids.length != times.length");
+
+        final int oldSize = mSize;
+        final int newSize = oldSize + times.length;
+        if (newSize > 0xFFFFFF)
+            throw new IllegalArgumentException("too many cue points");
+        ensureCapacity(newSize);
+
+        for (int i = 0; i < times.length; i++)
+        {
+            if (times[i] < 0)
+                throw new IllegalArgumentException("time must be >= 0");
+            mTimes[oldSize + i] = times[i];
+            mIds[oldSize + i] = ids == null ? i : ids[i];
+            mCallbacks[oldSize + i] = callback;
+        }
+        mSize = newSize;
+        sort();
+
+        mNextIndex = lowerBound(mLastPosition + 1);
+        postUpdate();
+    }
+
+    /**
+     * 移除某个回调的所有触发点
+     *
+     * @param callback
+     */
+    public synchronized void remove(Callback callback)
+    {
+        int size = 0;
+        int nextIndex = mNextIndex;
+        for (int i = 0; i < mSize; i++)
+        {
+            if (mCallbacks[i] == callback)
+            {
+                if (i < mNextIndex)
+                    nextIndex--;
+                continue;
+            }
+
+            mTimes[size] = mTimes[i];
+            mIds[size] = mIds[i];
+            mCallbacks[size] = mCallbacks[i];
+            size++;
+        }
+        Arrays.fill(mCallbacks, size, mSize, null);
+        mSize = size;
+        mNextIndex = nextIndex;
+        postUpdate();
+    }
+
+    /**
+     * 移除所有触发点
+     */
+    public synchronized void clear()
+    {
+        Arrays.fill(mCallbacks, 0, mSize, null);
+        mSize = 0;
+        mNextIndex = 0;
+        mHandler.removeCallbacks(mUpdateRunnable);
+    }
+
+    /**
+     * 返回触发点数量
+     *
+     * @return
+     */
+    public synchronized int size()
+    {
+        return mSize;
+    }
+
+    //----------player event start----------
+
+    /**
+     * seek的时候调用，跳过的触发点不会回调
+     *
+     * @param position
+     */
+    synchronized void onSeek(int position)
+    {
+        mPendingSeekPosition = position;
+        postUpdate();
+    }
+
+    /**
+     * 播放状态、缓冲状态、循环模式变化或者seek完成的时候调用
+     */
+    void onTimelineChanged()
+    {
+        postUpdate();
+    }
+
+    //----------player event end----------
+
+    private void postUpdate()
+    {
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mHandler.post(mUpdateRunnable);
+    }
+
+    private final Runnable mUpdateRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            update();
+        }
+    };
+
+    /**
+     * 在主线程回调已经到达的触发点，然后为下一个触发点安排定时
+     */
+    private void update()
+    {
+        final boolean loopCheck;
+        synchronized (this)
+        {
+            loopCheck = mLoopCheck;
+            mLoopCheck = false;
+        }
+
+        long position = mClock.getPosition();
+        if (loopCheck && mClock.resync())
+            position = mClock.getPosition();
+
+        synchronized (this)
+        {
+            if (mPendingSeekPosition >= 0)
+            {
+                mNextIndex = lowerBound(mPendingSeekPosition);
+                mLastPosition = mPendingSeekPosition;
+                mPendingSeekPosition = -1;
+            } else if (position < mLastPosition - TOLERANCE)
+            {
+                // 循环回到了开头或者重新开始播放
+                mNextIndex = lowerBound(position);
+            }
+            mLastPosition = position;
+        }
+
+        while (true)
+        {
+            final long time;
+            final int id;
+            final Callback callback;
+            synchronized (this)
+            {
+                if (mNextIndex >= mSize || mTimes[mNextIndex] > position + TOLERANCE)
+                    break;
+
+                time = mTimes[mNextIndex];
+                id = mIds[mNextIndex];
+                callback = mCallbacks[mNextIndex];
+                mNextIndex++;
+            }
+            callback.onCuePoint(mPlayer, time, id);
+        }
+
+        schedule(position);
+    }
+
+    private synchronized void schedule(long position)
+    {
+        mHandler.removeCallbacks(mUpdateRunnable);
+        if (!mClock.isRunning() || mSize == 0)
+            return;
+
+        if (mNextIndex < mSize)
+        {
+            mHandler.postDelayed(mUpdateRunnable, Math.max(1, mTimes[mNextIndex] - position));
+        } else if (mPlayer.isLooping())
+        {
+            final int duration = mPlayer.getDuration();
+            if (duration > 0)
+            {
+                mLoopCheck = true;
+                mHandler.postDelayed(mUpdateRunnable, Math.max(1, duration - position) + LOOP_CHECK_DELAY);
+            }
+        }
+    }
+
+    //----------array start----------
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity <= mTimes.length)
+            return;
+
+        final int newCapacity = Math.max(capacity, mTimes.length * 2);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mCallbacks = Arrays.copyOf(mCallbacks, newCapacity);
+    }
+
+    /**
+     * 第一个时间大于等于time的下标
+     */
+    private int lowerBound(long time)
+    {
+        int low = 0;
+        int high = mSize;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (mTimes[mid] < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * 第一个时间大于time的下标
+     */
+    private int upperBound(long time)
+    {
+        int low = 0;
+        int high = mSize;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (mTimes[mid] <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * 按时间排序，时间相同的保持原来的顺序
+     */
+    private void sort()
+    {
+        // 时间和原来的下标合成一个long排序，避免创建对象
+        final long[] keys = new long[mSize];
+        for (int i = 0; i < mSize; i++)
+        {
+            keys[i] = (mTimes[i] << 24) | i;
+        }
+        Arrays.sort(keys);
+
+        final long[] times = new long[mTimes.length];
+        final int[] ids = new int[mIds.length];
+        final Callback[] callbacks = new Callback[mCallbacks.length];
+        for (int i = 0; i < mSize; i++)
+        {
+            final int index = (int) (keys[i] & 0xFFFFFF);
+            times[i] = mTimes[index];
+            ids[i] = mIds[index];
+            callbacks[i] = mCallbacks[index];
+        }
+        mTimes = times;
+        mIds = ids;
+        mCallbacks = callbacks;
+    }
+
+    //----------array end----------
+
+    public interface Callback
+    {
+        /**
+         * 到达触发点
+         *
+         * @param player
+         * @param time   触发点的播放位置（毫秒）
+         * @param id     添加触发点时传入的id
+         */
+        void onCuePoint(FMediaPlayer player, long time, int id);
+    }
+}
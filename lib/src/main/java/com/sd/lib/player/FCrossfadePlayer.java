@@ -0,0 +1,441 @@
+package com.sd.lib.player;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 交叉淡入淡出播放器，内部有两个{@link FMediaPlayer}，切换的时候在后台准备新的数据，准备完毕后同时淡出当前的、淡入新的，
+ * 渐变完成后重置淡出的播放器留给下次切换使用
+ * <p>
+ * 渐变由所有播放器共享的触发器在主线程推进，增益查预先计算的表，每一步不创建对象；需要在主线程调用
+ */
+public class FCrossfadePlayer
+{
+    private final FMediaPlayer[] mPlayers = new FMediaPlayer[2];
+    private int mCurrentIndex;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private long mDuration = 3000;
+    private FadeCurve mCurve = FadeCurve.EqualPower;
+    private float mVolume = 1.0f;
+    private boolean mIsLooping;
+
+    private final LatencyHistogram mJitter = new LatencyHistogram();
+    private final VolumeRamp mRamp;
+    private OpenHandle mPendingHandle;
+    private boolean mIsFading;
+    private long mFadeCount;
+
+    private Callback mCallback;
+
+    public FCrossfadePlayer()
+    {
+        this(null);
+    }
+
+    /**
+     * @param commandLooper 两个播放器的命令线程，见{@link FMediaPlayer#FMediaPlayer(Looper)}
+     */
+    public FCrossfadePlayer(Looper commandLooper)
+    {
+        mPlayers[0] = new FMediaPlayer(commandLooper);
+        mPlayers[1] = new FMediaPlayer(commandLooper);
+        for (FMediaPlayer item : mPlayers)
+        {
+            item.addOnStateChangeCallback(mStateChangeCallback);
+            item.setOnCompletionListener(mCompletionListener);
+            item.setOnExceptionCallback(mExceptionCallback);
+        }
+        mRamp = new VolumeRamp(mRampTarget, mJitter);
+    }
+
+    /**
+     * 设置回调，在主线程通知；切换播放器后不需要重新设置
+     *
+     * @param callback
+     */
+    public void setCallback(Callback callback)
+    {
+        mCallback = callback;
+    }
+
+    /**
+     * 设置渐变时长，默认3000毫秒
+     *
+     * @param duration 时长（毫秒）
+     */
+    public void setCrossfadeDuration(long duration)
+    {
+        if (duration < 0)
+            throw new IllegalArgumentException("duration must be >= 0");
+        mDuration = duration;
+    }
+
+    /**
+     * 设置渐变曲线，默认{@link FadeCurve#EqualPower}
+     *
+     * @param curve
+     */
+    public void setFadeCurve(FadeCurve curve)
+    {
+        if (curve == null)
+            throw new IllegalArgumentException("curve is null");
+        mCurve = curve;
+    }
+
+    /**
+     * 设置音量，渐变中的话按新的音量继续渐变
+     *
+     * @param volume [0-1]
+     */
+    public void setVolume(float volume)
+    {
+        mVolume = volume;
+        if (!mIsFading)
+            getCurrentPlayer().setVolume(volume, volume);
+    }
+
+    /**
+     * 设置新的一项是否循环播放
+     *
+     * @param looping
+     */
+    public void setLooping(boolean looping)
+    {
+        mIsLooping = looping;
+        getCurrentPlayer().setLooping(looping);
+    }
+
+    /**
+     * 播放本地文件路径或者链接地址，当前有在播放的话交叉淡入淡出
+     *
+     * @param path
+     */
+    public void play(String path)
+    {
+        if (path == null)
+            throw new IllegalArgumentException("path is null");
+        play(path, 0, null);
+    }
+
+    /**
+     * 播放raw资源，当前有在播放的话交叉淡入淡出
+     *
+     * @param rawResId
+     * @param context
+     */
+    public void play(int rawResId, Context context)
+    {
+        if (rawResId == 0)
+            throw new IllegalArgumentException("rawResId is 0");
+        play(null, rawResId, context);
+    }
+
+    private void play(String path, int rawResId, Context context)
+    {
+        // 上一次切换还没完成的话直接完成
+        completeNow();
+
+        final FMediaPlayer current = getCurrentPlayer();
+        if (mDuration <= 0 || !current.isPlaying())
+        {
+            // 没有在播放的话直接在当前播放器播放
+            open(current, path, rawResId, context, mVolume);
+            return;
+        }
+
+        final FMediaPlayer incoming = getIncomingPlayer();
+        final OpenHandle handle = open(incoming, path, rawResId, context, 0);
+        mPendingHandle = handle;
+        handle.setCallback(mOpenCallback);
+    }
+
+    private OpenHandle open(FMediaPlayer player, String path, int rawResId, Context context, float volume)
+    {
+        if (path != null)
+            return player.open(path, 0, true, volume, mIsLooping);
+        else
+            return player.open(rawResId, context, 0, true, volume, mIsLooping);
+    }
+
+    /**
+     * 取消正在准备的新的一项
+     */
+    private void cancelPending()
+    {
+        final OpenHandle handle = mPendingHandle;
+        if (handle == null)
+            return;
+
+        mPendingHandle = null;
+        handle.setCallback(null);
+        handle.cancel();
+    }
+
+    /**
+     * 开始交叉淡入淡出，新的一项已经准备完毕并且开始播放
+     */
+    private void startFade()
+    {
+        mIsFading = true;
+        mFadeCount++;
+        mRamp.setDuration(mDuration);
+        mRampTarget.onRampStep(0);
+        RampScheduler.getInstance().start(mRamp);
+    }
+
+    /**
+     * 结束交叉淡入淡出，新的一项变成当前播放器，重置淡出的播放器
+     */
+    private void finishFade()
+    {
+        mIsFading = false;
+
+        final FMediaPlayer outgoing = getCurrentPlayer();
+        mCurrentIndex = 1 - mCurrentIndex;
+        getCurrentPlayer().setVolume(mVolume, mVolume);
+        outgoing.reset();
+
+        if (mCallback != null)
+            mCallback.onCrossfadeComplete(this);
+    }
+
+    private final OpenHandle.Callback mOpenCallback = new OpenHandle.Callback()
+    {
+        @Override
+        public void onComplete(final OpenHandle handle)
+        {
+            // 在播放器线程回调，转到主线程
+            mHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (mPendingHandle != handle)
+                        return;
+
+                    mPendingHandle = null;
+                    final int status = handle.getStatus();
+                    if (status == OpenHandle.STATUS_SUCCESS)
+                    {
+                        startFade();
+                    } else if (status == OpenHandle.STATUS_FAILED)
+                    {
+                        // 继续播放当前的一项，重置出错的播放器留给下次切换
+                        getIncomingPlayer().reset();
+                        if (mCallback != null)
+                            mCallback.onCrossfadeFailed(FCrossfadePlayer.this);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * 默认在主线程通知，只通知当前播放器的状态变化
+     */
+    private final FMediaPlayer.OnStateChangeCallback mStateChangeCallback = new FMediaPlayer.OnStateChangeCallback()
+    {
+        @Override
+        public void onStateChanged(FMediaPlayer player, FMediaPlayer.State oldState, FMediaPlayer.State newState)
+        {
+            if (player == getCurrentPlayer() && mCallback != null)
+                mCallback.onStateChanged(FCrossfadePlayer.this, oldState, newState);
+        }
+    };
+
+    private final FMediaPlayer.OnCompletionListener mCompletionListener = new FMediaPlayer.OnCompletionListener()
+    {
+        @Override
+        public void onCompletion(final FMediaPlayer player)
+        {
+            // 在播放器线程回调，转到主线程
+            mHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (player == getCurrentPlayer() && mCallback != null)
+                        mCallback.onCompletion(FCrossfadePlayer.this);
+                }
+            });
+        }
+    };
+
+    private final FMediaPlayer.OnExceptionCallback mExceptionCallback = new FMediaPlayer.OnExceptionCallback()
+    {
+        @Override
+        public void onException(FMediaPlayer player, final Exception e)
+        {
+            // 在播放器线程回调，转到主线程
+            mHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (mCallback != null)
+                        mCallback.onException(FCrossfadePlayer.this, e);
+                }
+            });
+        }
+    };
+
+    private final VolumeRamp.Target mRampTarget = new VolumeRamp.Target()
+    {
+        @Override
+        public void onRampStep(float progress)
+        {
+            final float in = mVolume * mCurve.getGain(progress);
+            final float out = mVolume * mCurve.getGain(1.0f - progress);
+            getIncomingPlayer().setVolume(in, in);
+            getCurrentPlayer().setVolume(out, out);
+        }
+
+        @Override
+        public void onRampEnd()
+        {
+            finishFade();
+        }
+    };
+
+    /**
+     * 返回当前播放器，渐变中的话返回正在淡出的播放器；每次渐变完成后会变成另一个播放器，
+     * 不要在返回的播放器上设置回调，用{@link #setCallback(Callback)}
+     *
+     * @return
+     */
+    public FMediaPlayer getCurrentPlayer()
+    {
+        return mPlayers[mCurrentIndex];
+    }
+
+    private FMediaPlayer getIncomingPlayer()
+    {
+        return mPlayers[1 - mCurrentIndex];
+    }
+
+    /**
+     * 是否正在交叉淡入淡出
+     *
+     * @return
+     */
+    public boolean isFading()
+    {
+        return mIsFading;
+    }
+
+    /**
+     * 暂停，渐变中的话直接完成渐变
+     */
+    public void pause()
+    {
+        completeNow();
+        getCurrentPlayer().pause();
+    }
+
+    /**
+     * 开始播放
+     */
+    public void start()
+    {
+        getCurrentPlayer().start();
+    }
+
+    /**
+     * 停止，取消正在准备的新的一项，渐变中的话直接完成渐变
+     */
+    public void stop()
+    {
+        completeNow();
+        getCurrentPlayer().stop();
+    }
+
+    /**
+     * 释放两个播放器，释放后不能再使用
+     */
+    public void release()
+    {
+        cancelPending();
+        RampScheduler.getInstance().cancel(mRamp);
+        mIsFading = false;
+        mHandler.removeCallbacksAndMessages(null);
+        mPlayers[0].release();
+        mPlayers[1].release();
+    }
+
+    /**
+     * 取消正在准备的新的一项，渐变中的话直接完成渐变
+     */
+    private void completeNow()
+    {
+        cancelPending();
+        if (mIsFading)
+        {
+            RampScheduler.getInstance().cancel(mRamp);
+            finishFade();
+        }
+    }
+
+    /**
+     * 返回交叉淡入淡出的次数
+     *
+     * @return
+     */
+    public long getFadeCount()
+    {
+        return mFadeCount;
+    }
+
+    /**
+     * 返回渐变每一步相对于计划时间的延迟
+     *
+     * @return
+     */
+    public LatencyHistogram getFadeJitter()
+    {
+        return mJitter;
+    }
+
+    public interface Callback
+    {
+        /**
+         * 当前播放器状态变化，渐变完成切换播放器的时候不通知
+         *
+         * @param player
+         * @param oldState
+         * @param newState
+         */
+        void onStateChanged(FCrossfadePlayer player, FMediaPlayer.State oldState, FMediaPlayer.State newState);
+
+        /**
+         * 当前的一项播放完毕
+         *
+         * @param player
+         */
+        void onCompletion(FCrossfadePlayer player);
+
+        /**
+         * 任意一个播放器出错，包括正在准备的新的一项
+         *
+         * @param player
+         * @param e
+         */
+        void onException(FCrossfadePlayer player, Exception e);
+
+        /**
+         * 交叉淡入淡出完成，新的一项变成当前播放器
+         *
+         * @param player
+         */
+        void onCrossfadeComplete(FCrossfadePlayer player);
+
+        /**
+         * 新的一项准备失败，已经重置，继续播放当前的一项
+         *
+         * @param player
+         */
+        void onCrossfadeFailed(FCrossfadePlayer player);
+    }
+}
@@ -0,0 +1,669 @@
+package com.sd.lib.player;
+
+import android.os.Build;
+import android.security.NetworkSecurityPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地回环缓存代理，{@link FMediaPlayer#setDataPath(String)}设置http(s)地址的时候，会把地址改为指向该代理，
+ * 代理按分段从磁盘缓存读取数据，未命中的分段从源地址下载并边下载边写入缓存
+ * <p>
+ * 代理地址带有每个实例随机生成的token，并且只转发http(s)地址，设备上的其他应用不能把代理当作转发服务使用
+ */
+public class FHttpCacheProxy
+{
+    private static final String LOOPBACK_HOST = "127.0.0.1";
+
+    private static final int CONNECT_TIMEOUT = 15 * 1000;
+    private static final int READ_TIMEOUT = 15 * 1000;
+
+    private final HttpSegmentCache mCache;
+    /**
+     * "/token?url="，不带token的请求直接拒绝
+     */
+    private final String mPathPrefix;
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+
+    private final AtomicLong mHitBytes = new AtomicLong();
+    private final AtomicLong mMissBytes = new AtomicLong();
+
+    /**
+     * @param cacheDir 缓存目录
+     * @param maxSize  缓存的最大字节数
+     */
+    public FHttpCacheProxy(File cacheDir, long maxSize)
+    {
+        mCache = new HttpSegmentCache(cacheDir, maxSize);
+        mPathPrefix = "/" + newToken() + "?url=";
+    }
+
+    private static String newToken()
+    {
+        final byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte item : bytes)
+        {
+            final int value = item & 0xFF;
+            if (value < 0x10)
+                sb.append('0');
+            sb.append(Integer.toHexString(value));
+        }
+        return sb.toString();
+    }
+
+    private static boolean isHttpUrl(String url)
+    {
+        final String lower = url.toLowerCase();
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    /**
+     * 启动代理
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException
+    {
+        if (mServerSocket != null)
+            return;
+
+        final ServerSocket serverSocket = new ServerSocket(0, 16, InetAddress.getByName(LOOPBACK_HOST));
+        mServerSocket = serverSocket;
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                final Thread thread = new Thread(r, "FHttpCacheProxy");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                acceptLoop(serverSocket);
+            }
+        });
+    }
+
+    /**
+     * 代理地址是明文http，targetSdkVersion 28及以上的应用在Android 9及以上默认禁止明文http，
+     * 需要通过network_security_config允许{@link #LOOPBACK_HOST}，否则不使用代理
+     *
+     * @return
+     */
+    static boolean isCleartextPermitted()
+    {
+        if (Build.VERSION.SDK_INT >= 24)
+            return NetworkSecurityPolicy.getInstance().isCleartextTrafficPermitted(LOOPBACK_HOST);
+        if (Build.VERSION.SDK_INT >= 23)
+            return NetworkSecurityPolicy.getInstance().isCleartextTrafficPermitted();
+        return true;
+    }
+
+    /**
+     * 停止代理
+     */
+    public synchronized void stop()
+    {
+        if (mServerSocket == null)
+            return;
+
+        HttpSegmentCache.closeQuietly(mServerSocket);
+        mServerSocket = null;
+        mExecutor.shutdownNow();
+        mExecutor = null;
+    }
+
+    /**
+     * 返回代理后的地址，不是http(s)地址、应用不允许访问明文http的{@link #LOOPBACK_HOST}或者代理启动失败的话返回原地址
+     *
+     * @param url
+     * @return
+     */
+    public String getProxyUrl(String url)
+    {
+        if (url == null)
+            return null;
+
+        if (!isHttpUrl(url) || !isCleartextPermitted())
+            return url;
+
+        final int port;
+        synchronized (this)
+        {
+            try
+            {
+                start();
+            } catch (IOException e)
+            {
+                return url;
+            }
+            port = mServerSocket.getLocalPort();
+        }
+
+        try
+        {
+            return "http://" + LOOPBACK_HOST + ":" + port + mPathPrefix + URLEncoder.encode(url, "UTF-8");
+        } catch (IOException e)
+        {
+            return url;
+        }
+    }
+
+    /**
+     * 返回缓存命中的字节比例
+     *
+     * @return [0-1]
+     */
+    public float getHitRatio()
+    {
+        final long hit = mHitBytes.get();
+        final long total = hit + mMissBytes.get();
+        return total <= 0 ? 0 : (float) hit / total;
+    }
+
+    /**
+     * 返回从缓存读取而节省的下载字节数
+     *
+     * @return
+     */
+    public long getBytesSaved()
+    {
+        return mHitBytes.get();
+    }
+
+    /**
+     * 返回从源地址下载的字节数
+     *
+     * @return
+     */
+    public long getBytesDownloaded()
+    {
+        return mMissBytes.get();
+    }
+
+    /**
+     * 返回当前缓存大小
+     *
+     * @return
+     */
+    public long getCacheSize()
+    {
+        return mCache.getSize();
+    }
+
+    /**
+     * 删除所有缓存
+     */
+    public void clearCache()
+    {
+        mCache.clear();
+    }
+
+    private void acceptLoop(ServerSocket serverSocket)
+    {
+        while (!serverSocket.isClosed())
+        {
+            final Socket socket;
+            try
+            {
+                socket = serverSocket.accept();
+            } catch (IOException e)
+            {
+                break;
+            }
+
+            final ExecutorService executor = mExecutor;
+            if (executor == null)
+            {
+                HttpSegmentCache.closeQuietly(socket);
+                break;
+            }
+
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        handleSocket(socket);
+                    } catch (IOException e)
+                    {
+                        // 播放器断开连接或者源地址请求失败
+                    } finally
+                    {
+                        HttpSegmentCache.closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    private void handleSocket(Socket socket) throws IOException
+    {
+        final InputStream input = socket.getInputStream();
+        final OutputStream output = socket.getOutputStream();
+
+        final String requestLine = readLine(input);
+        if (requestLine == null)
+            return;
+
+        long rangeStart = 0;
+        long rangeEnd = -1;
+        boolean hasRange = false;
+        String line;
+        while ((line = readLine(input)) != null && line.length() > 0)
+        {
+            final int index = line.indexOf(':');
+            if (index > 0 && "range".equalsIgnoreCase(line.substring(0, index).trim()))
+            {
+                final long[] range = parseRange(line.substring(index + 1).trim());
+                if (range != null)
+                {
+                    hasRange = true;
+                    rangeStart = range[0];
+                    rangeEnd = range[1];
+                }
+            }
+        }
+
+        final String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || !parts[1].startsWith(mPathPrefix))
+        {
+            writeStatus(output, "404 Not Found", "Content-Length: 0\r\n");
+            return;
+        }
+
+        final String url = URLDecoder.decode(parts[1].substring(mPathPrefix.length()), "UTF-8");
+        if (!isHttpUrl(url))
+        {
+            writeStatus(output, "403 Forbidden", "Content-Length: 0\r\n");
+            return;
+        }
+
+        final boolean isHead = "HEAD".equals(parts[0]);
+        new Session(url, output).serve(hasRange, rangeStart, rangeEnd, isHead);
+    }
+
+    private final class Session
+    {
+        private final String mUrl;
+        private final String mKey;
+        private final OutputStream mOutput;
+
+        private HttpURLConnection mConnection;
+        private InputStream mUpstream;
+        private long mUpstreamPosition;
+
+        private long mLength = -1;
+        private String mContentType;
+
+        Session(String url, OutputStream output)
+        {
+            mUrl = url;
+            mKey = HttpSegmentCache.getKey(url);
+            mOutput = output;
+        }
+
+        void serve(boolean hasRange, long start, long end, boolean isHead) throws IOException
+        {
+            try
+            {
+                final String[] meta = mCache.getMeta(mKey);
+                if (meta != null)
+                {
+                    mLength = Long.parseLong(meta[0]);
+                    mContentType = meta[1];
+                } else
+                {
+                    openUpstream(alignToSegment(start));
+                }
+
+                if (mLength < 0)
+                {
+                    // 源地址没有返回长度，不缓存直接转发
+                    passThrough(start, isHead);
+                    return;
+                }
+
+                if (end < 0 || end >= mLength)
+                    end = mLength - 1;
+
+                if (start > end)
+                {
+                    writeStatus(mOutput, "416 Range Not Satisfiable",
+                            "Content-Range: bytes */" + mLength + "\r\nContent-Length: 0\r\n");
+                    return;
+                }
+
+                final StringBuilder headers = new StringBuilder();
+                if (mContentType != null && mContentType.length() > 0)
+                    headers.append("Content-Type: ").append(mContentType).append("\r\n");
+                headers.append("Accept-Ranges: bytes\r\n");
+                headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+                if (hasRange)
+                {
+                    headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(mLength).append("\r\n");
+                    writeStatus(mOutput, "206 Partial Content", headers.toString());
+                } else
+                {
+                    writeStatus(mOutput, "200 OK", headers.toString());
+                }
+
+                if (!isHead)
+                    writeRange(start, end);
+            } finally
+            {
+                closeUpstream();
+            }
+        }
+
+        private void writeRange(long start, long end) throws IOException
+        {
+            final byte[] buffer = new byte[HttpSegmentCache.SEGMENT_SIZE];
+
+            long position = start;
+            while (position <= end)
+            {
+                final int index = (int) (position / HttpSegmentCache.SEGMENT_SIZE);
+                final long segmentStart = (long) index * HttpSegmentCache.SEGMENT_SIZE;
+                final int segmentLength = (int) Math.min(HttpSegmentCache.SEGMENT_SIZE, mLength - segmentStart);
+                final int offset = (int) (position - segmentStart);
+                final int count = (int) Math.min(segmentLength - offset, end - position + 1);
+
+                // 分段可能在getSegment()之后被淘汰，读取失败的话按未命中重新下载
+                final File file = mCache.getSegment(mKey, index);
+                if (file != null && HttpSegmentCache.read(file, offset, buffer, count) == count)
+                {
+                    // 先统计再发送，播放器收完数据的时候统计已经是最新的
+                    mHitBytes.addAndGet(count);
+                    mOutput.write(buffer, 0, count);
+                } else
+                {
+                    downloadSegment(index, segmentStart, segmentLength, offset, count, buffer);
+                }
+                position += count;
+            }
+            mOutput.flush();
+        }
+
+        /**
+         * 下载整个分段，边下载边把[offset, offset + count)部分写给播放器，下载完成后先写入缓存再发送剩下的部分
+         */
+        private void downloadSegment(int index, long segmentStart, int segmentLength, int offset, int count, byte[] buffer) throws IOException
+        {
+            if (mUpstream == null || mUpstreamPosition != segmentStart)
+            {
+                closeUpstream();
+                openUpstream(segmentStart);
+                if (mUpstream == null)
+                    throw new IOException("open upstream failed:" + mUrl);
+            }
+
+            final int writeEnd = offset + count;
+            int written = offset;
+            int read = 0;
+            while (read < segmentLength)
+            {
+                final int len = mUpstream.read(buffer, read, segmentLength - read);
+                if (len < 0)
+                    break;
+
+                read += len;
+                mUpstreamPosition += len;
+                mMissBytes.addAndGet(len);
+
+                // 最后一部分等写入缓存后再发送，播放器收完数据马上发起的下一个请求可以命中这个分段
+                final int available = Math.min(read, writeEnd);
+                if (available > written && read < segmentLength)
+                {
+                    mOutput.write(buffer, written, available - written);
+                    written = available;
+                }
+            }
+
+            if (read == segmentLength)
+                mCache.putSegment(mKey, index, buffer, read);
+
+            final int available = Math.min(read, writeEnd);
+            if (available > written)
+            {
+                mOutput.write(buffer, written, available - written);
+                written = available;
+            }
+
+            if (written < writeEnd)
+                throw new IOException("upstream ended early:" + mUrl);
+        }
+
+        /**
+         * 请求源地址，返回码不是200或者206的话抛异常
+         */
+        private HttpURLConnection connect(long position) throws IOException
+        {
+            final URLConnection urlConnection = new URL(mUrl).openConnection();
+            if (!(urlConnection instanceof HttpURLConnection))
+                throw new IOException("not http url:" + mUrl);
+
+            final HttpURLConnection connection = (HttpURLConnection) urlConnection;
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (position > 0)
+                connection.setRequestProperty("Range", "bytes=" + position + "-");
+
+            final int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL)
+            {
+                connection.disconnect();
+                throw new IOException("upstream response code:" + code);
+            }
+            return connection;
+        }
+
+        private void openUpstream(long position) throws IOException
+        {
+            final HttpURLConnection connection = connect(position);
+            final int code = connection.getResponseCode();
+
+            mConnection = connection;
+            mUpstream = connection.getInputStream();
+            mUpstreamPosition = position;
+
+            if (code == HttpURLConnection.HTTP_OK && position > 0)
+            {
+                // 源地址不支持Range，跳过前面的数据
+                long skip = position;
+                while (skip > 0)
+                {
+                    final long skipped = mUpstream.skip(skip);
+                    if (skipped <= 0)
+                        throw new IOException("skip failed:" + mUrl);
+                    skip -= skipped;
+                }
+            }
+
+            if (mLength < 0)
+            {
+                mContentType = connection.getContentType();
+                mLength = parseTotalLength(connection, code, position);
+                if (mLength >= 0)
+                    mCache.putMeta(mKey, mLength, mContentType);
+            }
+        }
+
+        private void closeUpstream()
+        {
+            HttpSegmentCache.closeQuietly(mUpstream);
+            mUpstream = null;
+            if (mConnection != null)
+            {
+                mConnection.disconnect();
+                mConnection = null;
+            }
+        }
+
+        /**
+         * 不缓存直接转发，请求的位置不是开头的话按确切的位置重新请求源地址：
+         * 源地址返回206的话按它的Content-Range返回206，不支持Range的话返回200和完整内容
+         */
+        private void passThrough(long start, boolean isHead) throws IOException
+        {
+            if (start > 0)
+            {
+                // 之前按分段对齐的位置请求，并且可能已经跳过了数据，不能直接转发
+                closeUpstream();
+                mConnection = connect(start);
+                mUpstream = mConnection.getInputStream();
+                mUpstreamPosition = start;
+            }
+
+            final HttpURLConnection connection = mConnection;
+            final StringBuilder headers = new StringBuilder();
+            if (mContentType != null)
+                headers.append("Content-Type: ").append(mContentType).append("\r\n");
+
+            final String contentLength = connection.getHeaderField("Content-Length");
+            if (contentLength != null)
+                headers.append("Content-Length: ").append(contentLength.trim()).append("\r\n");
+
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL)
+            {
+                final String contentRange = connection.getHeaderField("Content-Range");
+                if (contentRange == null)
+                    throw new IOException("upstream 206 without Content-Range:" + mUrl);
+
+                headers.append("Content-Range: ").append(contentRange.trim()).append("\r\n");
+                writeStatus(mOutput, "206 Partial Content", headers.toString());
+            } else
+            {
+                writeStatus(mOutput, "200 OK", headers.toString());
+            }
+
+            if (isHead)
+                return;
+
+            final byte[] buffer = new byte[8 * 1024];
+            int len;
+            while ((len = mUpstream.read(buffer)) >= 0)
+            {
+                mOutput.write(buffer, 0, len);
+                mMissBytes.addAndGet(len);
+            }
+            mOutput.flush();
+        }
+    }
+
+    private static long alignToSegment(long position)
+    {
+        return position / HttpSegmentCache.SEGMENT_SIZE * HttpSegmentCache.SEGMENT_SIZE;
+    }
+
+    private static long parseTotalLength(HttpURLConnection connection, int code, long position)
+    {
+        if (code == HttpURLConnection.HTTP_PARTIAL)
+        {
+            final String contentRange = connection.getHeaderField("Content-Range");
+            if (contentRange != null)
+            {
+                final int index = contentRange.lastIndexOf('/');
+                if (index >= 0)
+                {
+                    try
+                    {
+                        return Long.parseLong(contentRange.substring(index + 1).trim());
+                    } catch (NumberFormatException e)
+                    {
+                        return -1;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        final String contentLength = connection.getHeaderField("Content-Length");
+        if (contentLength == null)
+            return -1;
+        try
+        {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析"bytes=start-end"，只支持单个范围
+     *
+     * @return [start, end]，end为-1表示到结尾
+     */
+    private static long[] parseRange(String value)
+    {
+        if (!value.startsWith("bytes="))
+            return null;
+
+        final String range = value.substring("bytes=".length());
+        final int index = range.indexOf('-');
+        if (index <= 0 || range.indexOf(',') >= 0)
+            return null;
+
+        try
+        {
+            final long start = Long.parseLong(range.substring(0, index).trim());
+            final String endString = range.substring(index + 1).trim();
+            final long end = endString.length() > 0 ? Long.parseLong(endString) : -1;
+            return new long[]{start, end};
+        } catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private static void writeStatus(OutputStream output, String status, String headers) throws IOException
+    {
+        final String response = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\n\r\n";
+        output.write(response.getBytes("UTF-8"));
+    }
+
+    private static String readLine(InputStream input) throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = input.read()) >= 0)
+        {
+            if (c == '\n')
+                break;
+            if (c != '\r')
+                sb.append((char) c);
+        }
+        if (c < 0 && sb.length() == 0)
+            return null;
+        return sb.toString();
+    }
+}
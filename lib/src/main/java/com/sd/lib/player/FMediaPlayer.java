@@ -1,42 +1,189 @@
 package com.sd.lib.player;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.media.MediaPlayer;
 import android.media.MediaPlayer.OnErrorListener;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.text.TextUtils;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
 
 public class FMediaPlayer
 {
     private static FMediaPlayer sInstance;
+    /**
+     * 持有MediaPlayer的播放器，用于内存紧张的时候回收；弱引用，忘记release()的播放器可以被回收
+     */
+    private static final ObserverHolder<WeakReference<FMediaPlayer>> sNativePlayers = new ObserverHolder<>();
 
-    private MediaPlayer mPlayer;
-    private State mState = State.Idle;
+    private volatile MediaPlayer mPlayer;
+    private final WeakReference<FMediaPlayer> mNativeRef = new WeakReference<>(this);
+    private final PlayerStateMachine mStateMachine;
+    private final PlaybackClock mPlaybackClock;
+    private volatile float mPlaybackRate = 1.0f;
+
+    private volatile int mDuration = -1;
+    private volatile int mVideoWidth;
+    private volatile int mVideoHeight;
     private boolean mHasInit;
 
     private String mDataPath;
     private int mDataRawResId;
+    private Context mDataContext;
+    private final RawResourceCache mRawResourceCache = new RawResourceCache(4);
 
     private boolean mIsDataInitialized;
 
-    private WeakReference<SurfaceHolder> mSurfaceHolder;
-    private boolean mIsLooping;
+    private volatile WeakReference<SurfaceHolder> mSurfaceHolder;
+    private volatile Surface mSurface;
+    private volatile boolean mIsLooping;
+    private volatile float mLeftVolume = 1.0f;
+    private volatile float mRightVolume = 1.0f;
+
+    private final PlayerCommandQueue mCommandQueue;
+
+    private volatile SeekMode mSeekMode = SeekMode.PreviousSync;
+    private boolean mIsSeeking;
+    private int mPendingSeekPosition = -1;
+    private volatile long mDroppedSeekCount;
+
+    private volatile FHttpCacheProxy mHttpCacheProxy;
+    private volatile PlayerMetrics mMetrics;
+
+    private volatile long mPrepareTimeout;
+    private volatile long mBufferingStallTimeout;
+    private long mPrepareStartNanos;
+    private long mStallStartNanos;
+    private volatile boolean mIsBuffering;
+    private volatile int mBufferedPercent;
+    private final PlaybackQoe mQoe = new PlaybackQoe();
+    private volatile CuePointScheduler mCuePointScheduler;
+
+    private volatile String[] mFailoverPaths;
+    private int mFailoverIndex;
+
+    private int mRestorePosition = -1;
+    private boolean mRestoreAutoStart;
+    private OpenHandle mOpenHandle;
+
+    private volatile int mRecoveryMaxRetries;
+    private volatile long mRecoveryDelay = 500;
+    private int mRecoveryAttempts;
+    private volatile boolean mIsRecovering;
+    private long mRecoveryStartNanos;
+    private String mRecoverPath;
+    private int mRecoverRawResId;
+    private int mRecoverPosition;
+    private boolean mRecoverAutoStart;
+    /**
+     * 恢复过程中最后一次重新打开失败的异常
+     */
+    private Exception mRecoveryException;
+
+    private volatile long mIdleReclaimTimeout;
+    private volatile boolean mReclaimScheduled;
+    private volatile boolean mIsReclaimed;
+    private int mReclaimedPosition;
+    private volatile long mReclaimCount;
+    /**
+     * 正在不改变状态地重新准备被回收的MediaPlayer
+     */
+    private volatile boolean mIsRestoring;
+    /**
+     * 重新准备完毕后是否开始播放
+     */
+    private boolean mRestoreStartPending;
+
+    /**
+     * 播放范围的结尾提前这个时间以内当作已经到达（毫秒）
+     */
+    private static final int PLAY_RANGE_TOLERANCE = 5;
+    private volatile int mPlayRangeStart = -1;
+    private volatile int mPlayRangeEnd = -1;
+    private volatile int mPlayRangeRepeatCount;
+    private int mPlayRangeRemaining;
+    private boolean mIsPlayRangeSeeking;
+    private long mPlayRangeSeekNanos;
+    private long mPlayRangeTargetNanos;
+    private long mPlayRangeSeekLeadNanos;
+
+    private static final int FADE_ACTION_NONE = 0;
+    private static final int FADE_ACTION_PAUSE = 1;
+    private static final int FADE_ACTION_STOP = 2;
+    private volatile long mStartFadeDuration;
+    private volatile long mPauseFadeDuration;
+    private volatile long mStopFadeDuration;
+    private volatile FadeCurve mFadeCurve = FadeCurve.Exponential;
+    private final VolumeRamp mVolumeRamp;
+    /**
+     * 渐变增益，实际音量为设置的音量乘以这个值
+     */
+    private volatile float mFadeGain = 1.0f;
+    private volatile float mRampGainFrom;
+    private volatile float mRampGainTo;
+    private volatile float mRampLeftFrom;
+    private volatile float mRampLeftTo;
+    private volatile float mRampRightFrom;
+    private volatile float mRampRightTo;
+    /**
+     * 渐变完成后要执行的操作
+     */
+    private volatile int mFadeAction;
+    /**
+     * 开始播放的时候从0淡入
+     */
+    private boolean mFadeInPending;
+
+    /**
+     * 在调用线程直接通知回调
+     */
+    public static final Executor DIRECT_EXECUTOR = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
 
-    private ObserverHolder<OnStateChangeCallback> mOnStateChangeCallbackHolder;
+    private volatile Executor mCallbackExecutor;
+    private final StateChangeDispatcher mStateChangeDispatcher = new StateChangeDispatcher(this);
     private OnExceptionCallback mOnExceptionCallback;
 
     private OnVideoSizeChangedListener mOnVideoSizeChangedListener;
     private OnCompletionListener mOnCompletionListener;
     private OnPreparedListener mOnPreparedListener;
+    private volatile OnProgressCallback mOnProgressCallback;
+    private OnSeekCompleteListener mOnSeekCompleteListener;
+    private OnBufferingChangeListener mOnBufferingChangeListener;
+    private OnPlayRangeCompleteListener mOnPlayRangeCompleteListener;
 
     public FMediaPlayer()
     {
         //构造方法为public权限，可以单独new对象而不用全局单例对象
+        this(null);
+    }
+
+    /**
+     * 指定命令线程，所有对MediaPlayer的调用都会按顺序在该线程执行，调用方线程不会被阻塞
+     *
+     * @param commandLooper 命令线程的Looper，可以用{@link FMediaPlayerThread#getLooper()}共享线程；为null的话在调用方线程执行
+     */
+    public FMediaPlayer(Looper commandLooper)
+    {
+        mCommandQueue = commandLooper == null ? null : new PlayerCommandQueue(commandLooper, mCommandExecutor);
+        mStateMachine = new PlayerStateMachine(mEngine, mStateListener);
+        mPlaybackClock = new PlaybackClock(mPositionSource);
+        mVolumeRamp = new VolumeRamp(mVolumeRampTarget, null);
         init();
     }
 
@@ -57,21 +204,73 @@ public class FMediaPlayer
      * 初始化播放器，调用release()后如果想要继续使用，要调用此方法初始化
      */
     public void init()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_INIT);
+            return;
+        }
+        initInternal();
+    }
+
+    private void initInternal()
     {
         if (mHasInit)
             return;
 
         mHasInit = true;
 
-        mPlayer = new MediaPlayer();
-        mPlayer.setOnErrorListener(mInternalOnErrorListener);
-        mPlayer.setOnPreparedListener(mInternalOnPreparedListener);
-        mPlayer.setOnCompletionListener(mInternalOnCompletionListener);
-        mPlayer.setOnVideoSizeChangedListener(mInternalOnVideoSizeChangedListener);
+        final PlayerMetrics metrics = mMetrics;
+        if (metrics != null)
+            PlayerMetrics.register(metrics);
 
         setState(State.Idle);
     }
 
+    /**
+     * 创建MediaPlayer，第一次设置数据或者回收后重新使用的时候才创建
+     */
+    private void ensurePlayer()
+    {
+        if (mPlayer != null)
+            return;
+
+        final MediaPlayer player = new MediaPlayer();
+        player.setOnErrorListener(mInternalOnErrorListener);
+        player.setOnPreparedListener(mInternalOnPreparedListener);
+        player.setOnCompletionListener(mInternalOnCompletionListener);
+        player.setOnVideoSizeChangedListener(mInternalOnVideoSizeChangedListener);
+        player.setOnSeekCompleteListener(mInternalOnSeekCompleteListener);
+        player.setOnInfoListener(mInternalOnInfoListener);
+        player.setOnBufferingUpdateListener(mInternalOnBufferingUpdateListener);
+
+        mPlayer = player;
+        sNativePlayers.add(mNativeRef);
+        applyVolume();
+    }
+
+    /**
+     * 丢弃当前的MediaPlayer
+     *
+     * @return 被丢弃的MediaPlayer，没有的话返回null
+     */
+    private MediaPlayer takePlayer()
+    {
+        final MediaPlayer player = mPlayer;
+        mPlayer = null;
+        sNativePlayers.remove(mNativeRef);
+        return player;
+    }
+
+    /**
+     * 提前创建MediaPlayer，用于播放器池预热，只支持没有指定命令线程的播放器
+     */
+    void prewarmPlayer()
+    {
+        if (mCommandQueue == null && getState() != State.Released)
+            ensurePlayer();
+    }
+
     /**
      * 添加状态变化回调
      *
@@ -79,10 +278,7 @@ public class FMediaPlayer
      */
     public void addOnStateChangeCallback(OnStateChangeCallback callback)
     {
-        if (mOnStateChangeCallbackHolder == null)
-            mOnStateChangeCallbackHolder = new ObserverHolder<>();
-
-        mOnStateChangeCallbackHolder.add(callback);
+        mStateChangeDispatcher.add(callback);
     }
 
     /**
@@ -92,12 +288,17 @@ public class FMediaPlayer
      */
     public void removeOnStateChangeCallback(OnStateChangeCallback callback)
     {
-        if (mOnStateChangeCallbackHolder != null)
-        {
-            mOnStateChangeCallbackHolder.remove(callback);
-            if (mOnStateChangeCallbackHolder.isEmpty())
-                mOnStateChangeCallbackHolder = null;
-        }
+        mStateChangeDispatcher.remove(callback);
+    }
+
+    /**
+     * 设置状态变化回调的执行线程，连续的状态变化会合并成一次分发，按顺序通知
+     *
+     * @param executor {@link #DIRECT_EXECUTOR}-在状态变化的线程直接通知；其他Executor-提交到该Executor；null-主线程（默认）
+     */
+    public void setCallbackExecutor(Executor executor)
+    {
+        mCallbackExecutor = executor;
     }
 
     /**
@@ -140,319 +341,1831 @@ public class FMediaPlayer
         mOnPreparedListener = onPreparedListener;
     }
 
-    //----------proxy method start----------
-
     /**
-     * 返回总时长（毫秒）
+     * 设置seek完成回调，连续seek被合并的情况下，只有最后一次seek完成的时候才会回调
      *
-     * @return
+     * @param onSeekCompleteListener
      */
-    public int getDuration()
+    public void setOnSeekCompleteListener(OnSeekCompleteListener onSeekCompleteListener)
     {
-        switch (mState)
-        {
-            case Playing:
-            case Paused:
-            case Stopped:
-            case Completed:
-                return mPlayer.getDuration();
-            default:
-                return 0;
-        }
+        mOnSeekCompleteListener = onSeekCompleteListener;
     }
 
     /**
-     * 返回当前播放的进度位置（毫秒）
+     * 设置缓冲状态变化回调
      *
-     * @return
+     * @param onBufferingChangeListener
      */
-    public int getCurrentPosition()
+    public void setOnBufferingChangeListener(OnBufferingChangeListener onBufferingChangeListener)
     {
-        switch (mState)
-        {
-            case Playing:
-            case Paused:
-            case Completed:
-                return mPlayer.getCurrentPosition();
-            default:
-                return 0;
-        }
+        mOnBufferingChangeListener = onBufferingChangeListener;
     }
 
     /**
-     * 设置SurfaceHolder
+     * 设置播放范围播放完毕回调
      *
-     * @param holder
+     * @param onPlayRangeCompleteListener
      */
-    public void setDisplay(SurfaceHolder holder)
+    public void setOnPlayRangeCompleteListener(OnPlayRangeCompleteListener onPlayRangeCompleteListener)
     {
-        setSurfaceHolder(holder);
-
-        if (mState == State.Initialized)
-            mPlayer.setDisplay(holder);
+        mOnPlayRangeCompleteListener = onPlayRangeCompleteListener;
     }
 
     /**
-     * 设置左右声道音量
+     * 设置播放进度回调，播放状态下每隔{@link #setProgressInterval(long)}毫秒在主线程触发一次
      *
-     * @param leftVolume  [0-1]
-     * @param rightVolume [0-1]
+     * @param onProgressCallback
      */
-    public void setVolume(float leftVolume, float rightVolume)
+    public void setOnProgressCallback(OnProgressCallback onProgressCallback)
     {
-        mPlayer.setVolume(leftVolume, rightVolume);
+        mOnProgressCallback = onProgressCallback;
+        updateProgressTicker();
     }
 
     /**
-     * 设置是否循环播放
+     * 设置播放进度回调的间隔，对所有播放器生效，默认250毫秒
      *
-     * @param looping
+     * @param interval 间隔（毫秒）
      */
-    public void setLooping(boolean looping)
+    public static void setProgressInterval(long interval)
     {
-        mIsLooping = looping;
+        ProgressTicker.getInstance().setInterval(interval);
+    }
 
-        if (isDataInitialized())
-            mPlayer.setLooping(looping);
+    /**
+     * 设置是否开启耗时统计，开启后可以通过{@link #getMetrics()}或者{@link PlayerMetrics#snapshotAll()}获取统计数据
+     *
+     * @param enabled
+     */
+    public void setMetricsEnabled(boolean enabled)
+    {
+        if (enabled)
+        {
+            if (mMetrics == null)
+            {
+                mMetrics = new PlayerMetrics();
+                if (getState() != State.Released)
+                    PlayerMetrics.register(mMetrics);
+            }
+        } else
+        {
+            if (mMetrics != null)
+            {
+                PlayerMetrics.unregister(mMetrics);
+                mMetrics = null;
+            }
+        }
     }
 
     /**
-     * 当前是否循环播放模式
+     * 返回耗时统计，未开启的话返回null
      *
      * @return
      */
-    public boolean isLooping()
+    public PlayerMetrics getMetrics()
     {
-        return mIsLooping;
+        return mMetrics;
     }
 
-    public int getVideoWidth()
+    /**
+     * 清空所有回调，用于播放器被回收复用的时候
+     */
+    void clearListeners()
     {
-        return mPlayer.getVideoWidth();
+        mStateChangeDispatcher.clear();
+        mOnExceptionCallback = null;
+        mOnVideoSizeChangedListener = null;
+        mOnCompletionListener = null;
+        mOnPreparedListener = null;
+        mOnSeekCompleteListener = null;
+        mOnBufferingChangeListener = null;
+        mOnPlayRangeCompleteListener = null;
+        setOnProgressCallback(null);
     }
 
-    public int getVideoHeight()
+    /**
+     * 恢复默认的播放设置，用于播放器被回收复用的时候，在reset()之后调用；
+     * reset()之后的Idle状态可能已经安排了空闲回收，这里一起取消，避免池里的MediaPlayer被释放
+     */
+    void clearSettings()
     {
-        return mPlayer.getVideoHeight();
+        setLooping(false);
+        setVolume(1.0f, 1.0f);
+        setDisplay(null);
+        mPlaybackRate = 1.0f;
+        mStartFadeDuration = 0;
+        mPauseFadeDuration = 0;
+        mStopFadeDuration = 0;
+        mFadeCurve = FadeCurve.Exponential;
+        mCallbackExecutor = null;
+        mSeekMode = SeekMode.PreviousSync;
+        mHttpCacheProxy = null;
+        mPrepareTimeout = 0;
+        mBufferingStallTimeout = 0;
+        mFailoverPaths = null;
+        mRecoveryMaxRetries = 0;
+        mRecoveryDelay = 500;
+        setMetricsEnabled(false);
+        setOnProgressCallback(null);
+
+        final CuePointScheduler scheduler = mCuePointScheduler;
+        if (scheduler != null)
+            scheduler.clear();
+
+        mIdleReclaimTimeout = 0;
+        cancelReclaim();
     }
 
-    //----------proxy method end----------
+    //----------proxy method start----------
 
-    private void setSurfaceHolder(SurfaceHolder holder)
+    /**
+     * 返回总时长（毫秒），准备完毕后返回缓存的值，包括{@link State#Prepared}状态
+     *
+     * @return
+     */
+    public int getDuration()
     {
-        final SurfaceHolder old = getSurfaceHolder();
-        if (old != holder)
-        {
-            mSurfaceHolder = old == null ? null : new WeakReference<>(holder);
-        }
+        final int duration = mDuration;
+        if (duration >= 0)
+            return duration;
+        return mStateMachine.getDuration();
     }
 
     /**
-     * 返回设置的SurfaceHolder
+     * 返回当前播放的进度位置（毫秒）
      *
      * @return
      */
-    private SurfaceHolder getSurfaceHolder()
+    public int getCurrentPosition()
     {
-        return mSurfaceHolder == null ? null : mSurfaceHolder.get();
+        return mStateMachine.getCurrentPosition();
     }
 
-    //----------data start----------
-
-    public String getDataPath()
+    /**
+     * 是否正在缓冲，播放状态下缓冲的时候播放时钟会停止
+     *
+     * @return
+     */
+    public boolean isBuffering()
     {
-        return mDataPath;
+        return mIsBuffering;
     }
 
-    public int getDataRawResId()
+    /**
+     * 返回网络数据已经缓冲的百分比，数据来自MediaPlayer.OnBufferingUpdateListener
+     *
+     * @return [0-100]
+     */
+    public int getBufferedPercent()
     {
-        return mDataRawResId;
+        return mBufferedPercent;
     }
 
     /**
-     * 设置数据源
+     * 返回卡顿统计
      *
-     * @param path 本地文件路径或者链接地址
      * @return
      */
-    public boolean setDataPath(String path)
+    public PlaybackQoe getQoe()
     {
-        if (!TextUtils.isEmpty(mDataPath) && mDataPath.equals(path))
-            return true;
+        return mQoe;
+    }
 
-        try
-        {
-            reset();
-            mPlayer.setDataSource(path);
-            mDataPath = path;
-            setState(State.Initialized);
-            return true;
-        } catch (Exception e)
+    /**
+     * 返回播放位置触发器，第一次调用的时候创建
+     *
+     * @return
+     */
+    public CuePointScheduler getCuePointScheduler()
+    {
+        if (mCuePointScheduler == null)
         {
-            notifyException(e);
-            return false;
+            synchronized (this)
+            {
+                if (mCuePointScheduler == null)
+                    mCuePointScheduler = new CuePointScheduler(this, mPlaybackClock);
+            }
         }
+        return mCuePointScheduler;
     }
 
     /**
-     * 设置文件rawResId
+     * 播放时间线发生变化，通知播放位置触发器重新安排
      *
-     * @param rawResId
-     * @param context
+     * @param seekPosition seek的位置，不是seek的话传-1
      */
-    public boolean setDataRawResId(int rawResId, Context context)
+    private void notifyTimelineChanged(int seekPosition)
     {
-        if (mDataRawResId == rawResId)
-            return true;
+        final CuePointScheduler scheduler = mCuePointScheduler;
+        if (scheduler == null)
+            return;
 
-        try
-        {
-            reset();
-            final AssetFileDescriptor afd = context.getResources().openRawResourceFd(rawResId);
-            mPlayer.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-            mDataRawResId = rawResId;
-            setState(State.Initialized);
-            return true;
-        } catch (Exception e)
-        {
-            notifyException(e);
-            return false;
-        }
+        if (seekPosition >= 0)
+            scheduler.onSeek(seekPosition);
+        else
+            scheduler.onTimelineChanged();
     }
 
-    //----------data end----------
-
     /**
-     * 是否播放状态
+     * 返回播放时钟，用于高频读取播放位置而不用每次都调用{@link #getCurrentPosition()}
      *
      * @return
      */
-    public boolean isPlaying()
+    public PlaybackClock getPlaybackClock()
     {
-        return State.Playing == mState;
+        return mPlaybackClock;
     }
 
     /**
-     * 是否暂停状态
+     * 设置SurfaceHolder，任何状态下都可以设置，播放中切换不会中断播放，传null的话解除绑定
      *
-     * @return
+     * @param holder
      */
-    public boolean isPaused()
+    public void setDisplay(SurfaceHolder holder)
     {
-        return State.Paused == mState;
+        mSurface = null;
+        setSurfaceHolder(holder);
+        postApplyDisplay();
     }
 
     /**
-     * 播放数据是否已经初始化
+     * 设置Surface，用于TextureView或者SurfaceTexture，和{@link #setDisplay(SurfaceHolder)}互相覆盖
      *
-     * @return
+     * @param surface
      */
-    public boolean isDataInitialized()
+    public void setSurface(Surface surface)
     {
-        return mIsDataInitialized;
+        setSurfaceHolder(null);
+        mSurface = surface;
+        postApplyDisplay();
+    }
+
+    private void postApplyDisplay()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_APPLY_DISPLAY);
+            return;
+        }
+        applyDisplay();
+    }
+
+    private void applyDisplay()
+    {
+        final MediaPlayer player = mPlayer;
+        if (player == null)
+            return;
+
+        final Surface surface = mSurface;
+        if (surface != null)
+            player.setSurface(surface);
+        else
+            player.setDisplay(getSurfaceHolder());
     }
 
     /**
-     * 播放进度移动到某个位置
+     * 设置左右声道音量
      *
-     * @param position 某个时间点（毫秒）
-     * @return true-发起seek成功
+     * @param leftVolume  [0-1]
+     * @param rightVolume [0-1]
      */
-    public boolean seekTo(int position)
+    public void setVolume(float leftVolume, float rightVolume)
     {
-        if (isDataInitialized())
+        mLeftVolume = leftVolume;
+        mRightVolume = rightVolume;
+        // 正在fadeTo()的话停在新的音量
+        mRampLeftFrom = mRampLeftTo = leftVolume;
+        mRampRightFrom = mRampRightTo = rightVolume;
+        postApplyVolume();
+    }
+
+    private void postApplyVolume()
+    {
+        if (mCommandQueue != null)
         {
-            mPlayer.seekTo(position);
-            return true;
-        } else
+            mCommandQueue.post(PlayerCommandQueue.CMD_APPLY_VOLUME);
+            return;
+        }
+        applyVolume();
+    }
+
+    private void applyVolume()
+    {
+        final MediaPlayer player = mPlayer;
+        if (player != null)
         {
-            return false;
+            final float gain = mFadeGain;
+            player.setVolume(mLeftVolume * gain, mRightVolume * gain);
         }
     }
 
     /**
-     * 播放和暂停
+     * 设置开始播放的时候淡入的时长
+     *
+     * @param duration 时长（毫秒），小于等于0表示不淡入，默认不淡入
      */
-    public void performPlayPause()
+    public void setStartFadeDuration(long duration)
     {
-        togglePlayInside(false);
+        mStartFadeDuration = duration;
     }
 
     /**
-     * 重新播放和停止播放
+     * 设置暂停的时候淡出的时长，淡出完成后才真正暂停，淡出过程中状态保持{@link State#Playing}
+     *
+     * @param duration 时长（毫秒），小于等于0表示不淡出，默认不淡出
      */
-    public void performPlayStop()
+    public void setPauseFadeDuration(long duration)
     {
-        togglePlayInside(true);
+        mPauseFadeDuration = duration;
     }
 
     /**
-     * 暂停恢复播放
+     * 设置停止的时候淡出的时长，淡出完成后才真正停止，淡出过程中状态保持{@link State#Playing}；reset()和release()不淡出
      *
-     * @param restart true-恢复的时候重头播放
+     * @param duration 时长（毫秒），小于等于0表示不淡出，默认不淡出
      */
-    private void togglePlayInside(boolean restart)
+    public void setStopFadeDuration(long duration)
     {
-        if (!isDataInitialized())
-            return;
+        mStopFadeDuration = duration;
+    }
 
-        try
-        {
-            if (isPlaying())
-            {
-                if (restart)
-                {
-                    stop();
-                } else
-                {
-                    pause();
+    /**
+     * 设置渐变曲线，默认{@link FadeCurve#Exponential}
+     *
+     * @param curve
+     */
+    public void setFadeCurve(FadeCurve curve)
+    {
+        if (curve == null)
+            throw new IllegalArgumentException("curve is null");
+        mFadeCurve = curve;
+    }
+
+    /**
+     * 音量渐变到指定的值，完成后和调用{@link #setVolume(float, float)}一样
+     *
+     * @param volume   [0-1]
+     * @param duration 时长（毫秒），小于等于0的话立即设置
+     */
+    public void fadeTo(float volume, long duration)
+    {
+        if (duration <= 0)
+        {
+            setVolume(volume, volume);
+            return;
+        }
+
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_FADE_TO, (int) Math.min(duration, Integer.MAX_VALUE), volume);
+            return;
+        }
+        fadeToInternal(volume, duration);
+    }
+
+    private void fadeToInternal(float volume, long duration)
+    {
+        startFade(mFadeAction == FADE_ACTION_NONE ? 1.0f : 0, volume, volume, duration, mFadeAction);
+    }
+
+    /**
+     * 是否正在音量渐变
+     *
+     * @return
+     */
+    public boolean isFading()
+    {
+        return RampScheduler.getInstance().isRunning(mVolumeRamp) || mFadeAction != FADE_ACTION_NONE;
+    }
+
+    /**
+     * 从当前的增益和音量开始渐变
+     *
+     * @param gain   目标增益
+     * @param left   目标左声道音量
+     * @param right  目标右声道音量
+     * @param duration
+     * @param action 渐变完成后要执行的操作
+     */
+    private void startFade(float gain, float left, float right, long duration, int action)
+    {
+        mRampGainFrom = mFadeGain;
+        mRampGainTo = gain;
+        mRampLeftFrom = mLeftVolume;
+        mRampLeftTo = left;
+        mRampRightFrom = mRightVolume;
+        mRampRightTo = right;
+        mFadeAction = action;
+        mVolumeRamp.setDuration(duration);
+        RampScheduler.getInstance().start(mVolumeRamp);
+    }
+
+    /**
+     * 取消渐变，不执行渐变完成后的操作
+     */
+    private void cancelFade()
+    {
+        RampScheduler.getInstance().cancel(mVolumeRamp);
+        mFadeAction = FADE_ACTION_NONE;
+        mFadeInPending = false;
+    }
+
+    /**
+     * 取消渐变并恢复增益，reset()和release()的时候调用
+     */
+    private void resetFade()
+    {
+        cancelFade();
+        if (mFadeGain != 1.0f)
+        {
+            mFadeGain = 1.0f;
+            applyVolume();
+        }
+    }
+
+    /**
+     * 渐变完成，在命令线程或者调用方线程执行淡出后的暂停或者停止
+     */
+    private void handleFadeEnd()
+    {
+        // 完成通知发出之后又开始了新的渐变，由新的渐变完成的时候处理
+        if (RampScheduler.getInstance().isRunning(mVolumeRamp))
+            return;
+
+        final int action = mFadeAction;
+        mFadeAction = FADE_ACTION_NONE;
+
+        if (action == FADE_ACTION_PAUSE)
+            pausePlayerInternal();
+        else if (action == FADE_ACTION_STOP)
+            stopPlayerInternal();
+    }
+
+    private static float interpolate(FadeCurve curve, float from, float to, float progress)
+    {
+        if (from == to)
+            return to;
+
+        // 变大和变小都沿着曲线从小的一端走到大的一端，淡出和淡入的听感对称
+        if (to > from)
+            return from + (to - from) * curve.getGain(progress);
+        else
+            return to + (from - to) * curve.getGain(1.0f - progress);
+    }
+
+    /**
+     * 由共享的渐变触发器在主线程推进
+     */
+    private final VolumeRamp.Target mVolumeRampTarget = new VolumeRamp.Target()
+    {
+        @Override
+        public void onRampStep(float progress)
+        {
+            final FadeCurve curve = mFadeCurve;
+            mFadeGain = interpolate(curve, mRampGainFrom, mRampGainTo, progress);
+            mLeftVolume = interpolate(curve, mRampLeftFrom, mRampLeftTo, progress);
+            mRightVolume = interpolate(curve, mRampRightFrom, mRampRightTo, progress);
+            postApplyVolume();
+        }
+
+        @Override
+        public void onRampEnd()
+        {
+            if (mFadeAction == FADE_ACTION_NONE)
+                return;
+
+            if (mCommandQueue != null)
+            {
+                mCommandQueue.post(PlayerCommandQueue.CMD_FADE_END);
+                return;
+            }
+            handleFadeEnd();
+        }
+    };
+
+    /**
+     * 设置是否循环播放
+     *
+     * @param looping
+     */
+    public void setLooping(boolean looping)
+    {
+        mIsLooping = looping;
+        notifyTimelineChanged(-1);
+
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_APPLY_LOOPING);
+            return;
+        }
+        applyLooping();
+    }
+
+    private void applyLooping()
+    {
+        final MediaPlayer player = mPlayer;
+        if (player != null && isDataInitialized())
+            player.setLooping(mIsLooping);
+    }
+
+    /**
+     * 当前是否循环播放模式
+     *
+     * @return
+     */
+    public boolean isLooping()
+    {
+        return mIsLooping;
+    }
+
+    /**
+     * 返回视频宽度，数据来自{@link OnVideoSizeChangedListener}
+     *
+     * @return
+     */
+    public int getVideoWidth()
+    {
+        return mVideoWidth;
+    }
+
+    /**
+     * 返回视频高度，数据来自{@link OnVideoSizeChangedListener}
+     *
+     * @return
+     */
+    public int getVideoHeight()
+    {
+        return mVideoHeight;
+    }
+
+    /**
+     * 一次性填充播放器的状态，总时长和视频宽高使用缓存的值，播放位置来自{@link #getPlaybackClock()}，都不会调用MediaPlayer
+     *
+     * @param snapshot 要填充的快照，可以重复使用
+     * @return true-数据有变化，false-数据和上次填充的一样
+     */
+    public boolean getSnapshot(PlaybackSnapshot snapshot)
+    {
+        final int duration = mDuration;
+        return snapshot.update(getState(),
+                duration < 0 ? 0 : duration,
+                (int) mPlaybackClock.getPosition(),
+                mVideoWidth,
+                mVideoHeight,
+                mIsLooping,
+                mIsBuffering,
+                mBufferedPercent);
+    }
+
+    //----------proxy method end----------
+
+    private void setSurfaceHolder(SurfaceHolder holder)
+    {
+        final SurfaceHolder old = getSurfaceHolder();
+        if (old != holder)
+        {
+            mSurfaceHolder = holder == null ? null : new WeakReference<>(holder);
+        }
+    }
+
+    /**
+     * 返回设置的SurfaceHolder
+     *
+     * @return
+     */
+    private SurfaceHolder getSurfaceHolder()
+    {
+        return mSurfaceHolder == null ? null : mSurfaceHolder.get();
+    }
+
+    /**
+     * 返回MediaPlayer，用于调用方线程的查询方法
+     *
+     * @return
+     */
+    private MediaPlayer getPlayer()
+    {
+        final MediaPlayer player = mPlayer;
+        if (player == null)
+            throw new IllegalStateException("player has not been initialized");
+        return player;
+    }
+
+    //----------data start----------
+
+    /**
+     * 设置缓存代理，设置后{@link #setDataPath(String)}传入的http(s)地址会通过代理播放；
+     * 应用不允许明文http访问127.0.0.1的话直接播放原地址，见{@link FHttpCacheProxy#getProxyUrl(String)}
+     *
+     * @param proxy
+     */
+    public void setHttpCacheProxy(FHttpCacheProxy proxy)
+    {
+        mHttpCacheProxy = proxy;
+    }
+
+    /**
+     * 设置准备超时，超过这个时间还没准备完毕的话，通过{@link OnExceptionCallback}通知{@link TimeoutException}，
+     * 卡住的MediaPlayer在后台线程释放，如果设置了{@link #setFailoverDataPaths(String...)}的话切换到下一个地址
+     *
+     * @param timeout 超时时间（毫秒），小于等于0表示不检测，默认不检测
+     */
+    public void setPrepareTimeout(long timeout)
+    {
+        mPrepareTimeout = timeout;
+    }
+
+    /**
+     * 设置播放中缓冲卡顿的超时，超时后的处理和{@link #setPrepareTimeout(long)}一样
+     *
+     * @param timeout 超时时间（毫秒），小于等于0表示不检测，默认不检测
+     */
+    public void setBufferingStallTimeout(long timeout)
+    {
+        mBufferingStallTimeout = timeout;
+    }
+
+    /**
+     * 设置备用地址，当前数据准备失败或者超时的时候，按顺序切换到备用地址并自动播放，重新设置数据后从第一个备用地址开始
+     *
+     * @param paths
+     */
+    public void setFailoverDataPaths(String... paths)
+    {
+        mFailoverPaths = paths == null || paths.length == 0 ? null : paths.clone();
+    }
+
+    /**
+     * 设置自动恢复，播放出错或者超时的时候，记住数据源、播放位置和是否在播放，按指数退避重新准备，seek到原来的位置后再开始播放，
+     * 音量、循环和SurfaceHolder保持不变；重试次数用完后才通过{@link OnExceptionCallback}通知异常
+     *
+     * @param maxRetries   每次设置数据后最多重试的次数，小于等于0表示不自动恢复，默认不自动恢复
+     * @param initialDelay 第一次重试的延迟（毫秒），之后每次翻倍
+     */
+    public void setAutoRecovery(int maxRetries, long initialDelay)
+    {
+        if (initialDelay < 0)
+            throw new IllegalArgumentException("initialDelay must be >= 0");
+        mRecoveryMaxRetries = maxRetries;
+        mRecoveryDelay = initialDelay;
+    }
+
+    /**
+     * 是否正在自动恢复
+     *
+     * @return
+     */
+    public boolean isRecovering()
+    {
+        return mIsRecovering;
+    }
+
+    /**
+     * 设置空闲回收，没有在准备或者播放的状态持续超过这个时间的话，在后台线程释放MediaPlayer，
+     * 状态和数据源保持不变，下次调用start()的时候重新创建并准备，seek到原来的位置后开始播放
+     *
+     * @param timeout 超时时间（毫秒），小于等于0表示不回收，默认不回收
+     */
+    public void setIdleReclaimTimeout(long timeout)
+    {
+        mIdleReclaimTimeout = timeout;
+    }
+
+    /**
+     * MediaPlayer是否已经被回收
+     *
+     * @return
+     */
+    public boolean isReclaimed()
+    {
+        return mIsReclaimed;
+    }
+
+    /**
+     * 返回MediaPlayer被回收的次数
+     *
+     * @return
+     */
+    public long getReclaimCount()
+    {
+        return mReclaimCount;
+    }
+
+    /**
+     * 设置播放范围[start, end)，播放到end的时候回到start，重复repeatCount次后停在end并暂停，
+     * 再次调用start()的话从start开始重新播放这个范围
+     * <p>
+     * 结尾根据播放时钟安排定时，不轮询播放位置；还要重复的话按最近几次seek的耗时提前发起seek，seek完成的时候刚好到达结尾
+     * <p>
+     * 只对当前的数据有效，设置新的数据或者调用{@link #reset()}的时候清除，所以要在设置数据之后调用
+     *
+     * @param start       开始位置（毫秒）
+     * @param end         结束位置（毫秒），需要小于时长
+     * @param repeatCount 重复次数，0-只播放一遍，-1-一直重复
+     */
+    public void setPlayRange(int start, int end, int repeatCount)
+    {
+        if (start < 0)
+            throw new IllegalArgumentException("start must be >= 0");
+        if (end <= start)
+            throw new IllegalArgumentException("end must be > start");
+        if (repeatCount < -1)
+            throw new IllegalArgumentException("repeatCount must be >= -1");
+
+        postApplyPlayRange(new int[]{start, end, repeatCount});
+    }
+
+    /**
+     * 清除播放范围
+     */
+    public void clearPlayRange()
+    {
+        postApplyPlayRange(null);
+    }
+
+    /**
+     * 和设置数据一样在命令线程修改，保证先设置数据再设置的播放范围不会被设置数据清除
+     *
+     * @param range [start, end, repeatCount]，null-清除
+     */
+    private void postApplyPlayRange(int[] range)
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_APPLY_PLAY_RANGE, 0, range);
+            return;
+        }
+        applyPlayRange(range);
+    }
+
+    private void applyPlayRange(int[] range)
+    {
+        if (range == null)
+        {
+            mPlayRangeStart = -1;
+            mPlayRangeEnd = -1;
+            mPlayRangeRepeatCount = 0;
+        } else
+        {
+            mPlayRangeStart = range[0];
+            mPlayRangeEnd = range[1];
+            mPlayRangeRepeatCount = range[2];
+        }
+        mPlayRangeRemaining = mPlayRangeRepeatCount;
+        mIsPlayRangeSeeking = false;
+        updatePlayRangeTimer(true);
+    }
+
+    /**
+     * 返回播放范围的开始位置，没有设置的话返回-1
+     *
+     * @return
+     */
+    public int getPlayRangeStart()
+    {
+        return mPlayRangeStart;
+    }
+
+    /**
+     * 返回播放范围的结束位置，没有设置的话返回-1
+     *
+     * @return
+     */
+    public int getPlayRangeEnd()
+    {
+        return mPlayRangeEnd;
+    }
+
+    /**
+     * 内存紧张的时候回收所有没有在准备或者播放的播放器的MediaPlayer，在Application或者Activity的onTrimMemory()里调用
+     *
+     * @param level {@link ComponentCallbacks2#onTrimMemory(int)}的level，小于{@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}的话不回收
+     */
+    public static void onTrimMemory(int level)
+    {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            return;
+
+        sNativePlayers.foreach(new ObserverHolder.ForeachCallback<WeakReference<FMediaPlayer>>()
+        {
+            @Override
+            public void onNext(WeakReference<FMediaPlayer> observer)
+            {
+                final FMediaPlayer player = observer.get();
+                if (player == null)
+                    sNativePlayers.remove(observer);
+                else
+                    player.mReclaimTask.run();
+            }
+        });
+    }
+
+    public String getDataPath()
+    {
+        return mDataPath;
+    }
+
+    public int getDataRawResId()
+    {
+        return mDataRawResId;
+    }
+
+    /**
+     * 返回raw资源文件描述符缓存，默认最多缓存4个，release()的时候全部关闭
+     *
+     * @return
+     */
+    public RawResourceCache getRawResourceCache()
+    {
+        return mRawResourceCache;
+    }
+
+    /**
+     * 设置数据源
+     *
+     * @param path 本地文件路径或者链接地址
+     * @return 如果指定了命令线程，则总是返回true，异常通过{@link OnExceptionCallback}通知
+     */
+    public boolean setDataPath(String path)
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_SET_DATA_PATH, 0, path);
+            return true;
+        }
+        return setDataPathInternal(path);
+    }
+
+    private boolean setDataPathInternal(String path)
+    {
+        if (!TextUtils.isEmpty(mDataPath) && mDataPath.equals(path))
+            return true;
+
+        beginSession();
+        return openDataPath(path);
+    }
+
+    /**
+     * 调用方设置新的数据，结束之前的open、自动恢复、备用地址和播放范围
+     */
+    private void beginSession()
+    {
+        finishOpen(OpenHandle.STATUS_CANCELLED);
+        cancelRecovery();
+        applyPlayRange(null);
+        mRecoveryAttempts = 0;
+        mFailoverIndex = 0;
+    }
+
+    private boolean openDataPath(String path)
+    {
+        try
+        {
+            resetSession();
+            ensurePlayer();
+            setPlayerDataSource(path);
+            mDataPath = path;
+            setState(State.Initialized);
+            return true;
+        } catch (Exception e)
+        {
+            notifyOpenException(e);
+            return false;
+        }
+    }
+
+    /**
+     * 设置文件rawResId
+     *
+     * @param rawResId
+     * @param context
+     * @return 如果指定了命令线程，则总是返回true，异常通过{@link OnExceptionCallback}通知
+     */
+    public boolean setDataRawResId(int rawResId, Context context)
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_SET_DATA_RAW, rawResId, context.getApplicationContext());
+            return true;
+        }
+        return setDataRawResIdInternal(rawResId, context);
+    }
+
+    private boolean setDataRawResIdInternal(int rawResId, Context context)
+    {
+        if (mDataRawResId == rawResId)
+            return true;
+
+        beginSession();
+        return openDataRawResId(rawResId, context.getApplicationContext());
+    }
+
+    private boolean openDataRawResId(int rawResId, Context context)
+    {
+        try
+        {
+            resetSession();
+            ensurePlayer();
+            setPlayerDataSource(rawResId, context);
+            mDataRawResId = rawResId;
+            mDataContext = context;
+            setState(State.Initialized);
+            return true;
+        } catch (Exception e)
+        {
+            notifyOpenException(e);
+            return false;
+        }
+    }
+
+    /**
+     * 自动恢复过程中重新打开失败的话先不通知，重试次数用完后再通知
+     *
+     * @param e
+     */
+    private void notifyOpenException(Exception e)
+    {
+        if (mIsRecovering)
+            mRecoveryException = e;
+        else
+            notifyException(e);
+    }
+
+    private void setPlayerDataSource(String path) throws IOException
+    {
+        final FHttpCacheProxy proxy = mHttpCacheProxy;
+        mPlayer.setDataSource(proxy == null ? path : proxy.getProxyUrl(path));
+    }
+
+    private void setPlayerDataSource(int rawResId, Context context) throws IOException
+    {
+        final AssetFileDescriptor afd = mRawResourceCache.open(rawResId, context);
+        try
+        {
+            mPlayer.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+        } finally
+        {
+            if (!mRawResourceCache.isCached(afd))
+                RawResourceCache.closeQuietly(afd);
+        }
+    }
+
+    /**
+     * 一次性打开数据，设置数据、准备、seek到开始位置（等待seek完成）、开始播放按顺序执行，
+     * 准备完毕后不会先从头播放再跳到开始位置
+     *
+     * @param path          本地文件路径或者链接地址
+     * @param startPosition 开始位置（毫秒）
+     * @param autoPlay      seek完成后是否开始播放，false的话停在{@link State#Prepared}
+     * @param volume        音量[0-1]
+     * @param looping       是否循环播放
+     * @return 可以查询结果或者取消的句柄
+     */
+    public OpenHandle open(String path, int startPosition, boolean autoPlay, float volume, boolean looping)
+    {
+        return open(new OpenHandle(this, path, 0, null, startPosition, autoPlay), volume, looping);
+    }
+
+    /**
+     * 一次性打开raw资源，参考{@link #open(String, int, boolean, float, boolean)}
+     *
+     * @param rawResId
+     * @param context
+     * @param startPosition 开始位置（毫秒）
+     * @param autoPlay      seek完成后是否开始播放
+     * @param volume        音量[0-1]
+     * @param looping       是否循环播放
+     * @return 可以查询结果或者取消的句柄
+     */
+    public OpenHandle open(int rawResId, Context context, int startPosition, boolean autoPlay, float volume, boolean looping)
+    {
+        return open(new OpenHandle(this, null, rawResId, context.getApplicationContext(), startPosition, autoPlay), volume, looping);
+    }
+
+    private OpenHandle open(OpenHandle handle, float volume, boolean looping)
+    {
+        mLeftVolume = volume;
+        mRightVolume = volume;
+        mIsLooping = looping;
+
+        if (mCommandQueue != null)
+            mCommandQueue.post(PlayerCommandQueue.CMD_OPEN, 0, handle);
+        else
+            openInternal(handle);
+        return handle;
+    }
+
+    private void openInternal(OpenHandle handle)
+    {
+        if (handle.isDone())
+            return;
+
+        beginSession();
+
+        final boolean opened = handle.rawResId != 0
+                ? openDataRawResId(handle.rawResId, handle.context)
+                : openDataPath(handle.path);
+        if (!opened)
+        {
+            handle.finish(OpenHandle.STATUS_FAILED);
+            return;
+        }
+
+        applyVolume();
+        mOpenHandle = handle;
+        mRestorePosition = handle.startPosition;
+        mRestoreAutoStart = handle.autoPlay;
+        notifyTimelineChanged(handle.startPosition);
+        startInternal();
+    }
+
+    /**
+     * 由{@link OpenHandle#cancel()}调用
+     *
+     * @param handle
+     */
+    void cancelOpen(OpenHandle handle)
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_CANCEL_OPEN, 0, handle);
+            return;
+        }
+        cancelOpenInternal(handle);
+    }
+
+    private void cancelOpenInternal(OpenHandle handle)
+    {
+        if (mOpenHandle == handle)
+        {
+            mOpenHandle = null;
+            resetInternal();
+        }
+    }
+
+    /**
+     * 结束当前的open
+     *
+     * @param status
+     */
+    private void finishOpen(int status)
+    {
+        final OpenHandle handle = mOpenHandle;
+        if (handle != null)
+        {
+            mOpenHandle = null;
+            handle.finish(status);
+        }
+    }
+
+    /**
+     * 切换到下一个备用地址并自动播放
+     *
+     * @return true-已经切换
+     */
+    private boolean failover()
+    {
+        final String[] paths = mFailoverPaths;
+        if (paths == null)
+            return false;
+
+        while (mFailoverIndex < paths.length)
+        {
+            final String path = paths[mFailoverIndex++];
+            if (openDataPath(path))
+            {
+                startInternal();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //----------data end----------
+
+    /**
+     * 是否播放状态
+     *
+     * @return
+     */
+    public boolean isPlaying()
+    {
+        return State.Playing == getState();
+    }
+
+    /**
+     * 是否暂停状态
+     *
+     * @return
+     */
+    public boolean isPaused()
+    {
+        return State.Paused == getState();
+    }
+
+    /**
+     * 播放数据是否已经初始化
+     *
+     * @return
+     */
+    public boolean isDataInitialized()
+    {
+        return mIsDataInitialized;
+    }
+
+    /**
+     * 播放进度移动到某个位置
+     *
+     * @param position 某个时间点（毫秒）
+     * @return true-发起seek成功，如果指定了命令线程，则总是返回true
+     */
+    public boolean seekTo(int position)
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_SEEK, position, null);
+            return true;
+        }
+        return seekToInternal(position);
+    }
+
+    private boolean seekToInternal(int position)
+    {
+        mIsPlayRangeSeeking = false;
+
+        if (mIsReclaimed || (mIsRestoring && !mIsSeeking))
+        {
+            // MediaPlayer已经被回收或者正在重新准备，准备完毕后从这个位置开始
+            mReclaimedPosition = position;
+            mPlaybackClock.reset(position, false, mPlaybackRate);
+            notifyTimelineChanged(position);
+            return true;
+        }
+
+        if (isDataInitialized())
+        {
+            mPlaybackClock.reset(position, mPlaybackClock.isRunning(), mPlaybackRate);
+            notifyTimelineChanged(position);
+
+            final State state = getState();
+            if (state == State.Initialized || state == State.Preparing)
+            {
+                // 还没准备完毕，准备完毕后从这个位置开始
+                if (mRestorePosition < 0)
+                    mRestoreAutoStart = true;
+                mRestorePosition = position;
+            } else if (mIsSeeking)
+            {
+                // 上一次seek还未完成，只保留最新的位置，等上一次seek完成后再发起
+                if (mPendingSeekPosition >= 0)
+                    mDroppedSeekCount++;
+                mPendingSeekPosition = position;
+            } else
+            {
+                seekPlayer(position);
+            }
+            return true;
+        } else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * 设置seek模式，默认{@link SeekMode#PreviousSync}
+     *
+     * @param seekMode
+     */
+    public void setSeekMode(SeekMode seekMode)
+    {
+        if (seekMode == null)
+            throw new IllegalArgumentException("seekMode is null");
+        mSeekMode = seekMode;
+    }
+
+    /**
+     * 返回seek模式
+     *
+     * @return
+     */
+    public SeekMode getSeekMode()
+    {
+        return mSeekMode;
+    }
+
+    /**
+     * 返回因为合并而被丢弃的seek次数
+     *
+     * @return
+     */
+    public long getDroppedSeekCount()
+    {
+        return mDroppedSeekCount;
+    }
+
+    /**
+     * 播放和暂停
+     */
+    public void performPlayPause()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_TOGGLE_PAUSE);
+            return;
+        }
+        togglePlayInside(false);
+    }
+
+    /**
+     * 重新播放和停止播放
+     */
+    public void performPlayStop()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_TOGGLE_STOP);
+            return;
+        }
+        togglePlayInside(true);
+    }
+
+    /**
+     * 暂停恢复播放
+     *
+     * @param restart true-恢复的时候重头播放
+     */
+    private void togglePlayInside(boolean restart)
+    {
+        if (!isDataInitialized())
+            return;
+
+        try
+        {
+            if (isPlaying())
+            {
+                if (restart)
+                {
+                    stopInternal();
+                } else
+                {
+                    pauseInternal();
                 }
             } else
             {
-                start();
+                startInternal();
+            }
+        } catch (Exception e)
+        {
+            notifyException(e);
+        }
+    }
+
+    /**
+     * 开始播放
+     */
+    public void start()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_START);
+            return;
+        }
+        startInternal();
+    }
+
+    private void startInternal()
+    {
+        if (mIsReclaimed)
+        {
+            restoreReclaimedPlayer();
+            return;
+        }
+        if (mIsRestoring)
+        {
+            mRestoreStartPending = true;
+            return;
+        }
+
+        if (mFadeAction != FADE_ACTION_NONE)
+        {
+            // 正在淡出准备暂停或者停止，取消后淡入回原来的音量
+            mFadeAction = FADE_ACTION_NONE;
+            if (getState() == State.Playing)
+            {
+                startFade(1.0f, mLeftVolume, mRightVolume, Math.max(1, mStartFadeDuration), FADE_ACTION_NONE);
+                return;
+            }
+        }
+
+        if (getState() != State.Playing)
+        {
+            if (mStartFadeDuration > 0)
+            {
+                // 进入播放状态的时候开始淡入
+                RampScheduler.getInstance().cancel(mVolumeRamp);
+                mFadeInPending = true;
+                mFadeGain = 0;
+                applyVolume();
+            } else if (mFadeGain != 1.0f)
+            {
+                // 上次淡出后暂停或者停止的
+                mFadeGain = 1.0f;
+                applyVolume();
+            }
+        }
+
+        final PlayerMetrics metrics = mMetrics;
+        if (metrics != null)
+            metrics.onStartRequested();
+
+        mStateMachine.execute(PlayerStateMachine.CMD_START);
+    }
+
+    /**
+     * 暂停播放
+     */
+    public void pause()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_PAUSE);
+            return;
+        }
+        pauseInternal();
+    }
+
+    private void pauseInternal()
+    {
+        final long duration = mPauseFadeDuration;
+        if (duration > 0 && getState() == State.Playing)
+        {
+            // 先淡出，完成后再暂停；已经在淡出准备停止的话保持停止
+            if (mFadeAction == FADE_ACTION_NONE)
+                startFade(0, mLeftVolume, mRightVolume, duration, FADE_ACTION_PAUSE);
+            return;
+        }
+        pausePlayerInternal();
+    }
+
+    private void pausePlayerInternal()
+    {
+        // 正在重新准备的话准备完毕后不开始播放
+        mRestoreStartPending = false;
+        cancelFade();
+        mStateMachine.execute(PlayerStateMachine.CMD_PAUSE);
+    }
+
+    /**
+     * 停止播放
+     */
+    public void stop()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_STOP);
+            return;
+        }
+        stopInternal();
+    }
+
+    private void stopInternal()
+    {
+        final long duration = mStopFadeDuration;
+        if (duration > 0 && getState() == State.Playing)
+        {
+            // 先淡出，完成后再停止；已经在淡出准备暂停的话改成停止
+            if (mFadeAction == FADE_ACTION_NONE)
+                startFade(0, mLeftVolume, mRightVolume, duration, FADE_ACTION_STOP);
+            else
+                mFadeAction = FADE_ACTION_STOP;
+            return;
+        }
+        stopPlayerInternal();
+    }
+
+    private void stopPlayerInternal()
+    {
+        if (mIsRestoring)
+            abortSilentRestore();
+        cancelFade();
+        if (mStateMachine.execute(PlayerStateMachine.CMD_STOP) && mIsReclaimed)
+            mReclaimedPosition = 0;
+    }
+
+    /**
+     * 重置播放器，重置之后需要重新设置数据才能播放
+     */
+    public void reset()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_RESET);
+            return;
+        }
+        resetInternal();
+    }
+
+    private void resetInternal()
+    {
+        finishOpen(OpenHandle.STATUS_CANCELLED);
+        cancelRecovery();
+        applyPlayRange(null);
+        resetSession();
+    }
+
+    /**
+     * 停止并重置播放器，不影响自动恢复
+     */
+    private void resetSession()
+    {
+        if (getState() == State.Released)
+            return;
+
+        resetFade();
+        stopPlayerInternal();
+        resetPlayer();
+    }
+
+    /**
+     * 释放播放器，用于不再需要播放器的时候调用，调用此方法后，如果还要继续使用的话，需要调用init()方法初始化
+     */
+    public void release()
+    {
+        if (mCommandQueue != null)
+        {
+            mCommandQueue.post(PlayerCommandQueue.CMD_RELEASE);
+            return;
+        }
+        releaseInternal();
+    }
+
+    private void releaseInternal()
+    {
+        finishOpen(OpenHandle.STATUS_CANCELLED);
+        cancelRecovery();
+        if (getState() == State.Released)
+            return;
+
+        resetFade();
+        stopPlayerInternal();
+        releasePlayer();
+    }
+
+    /**
+     * 返回当前状态
+     *
+     * @return
+     */
+    public State getState()
+    {
+        return mStateMachine.getState();
+    }
+
+    private void setState(State state)
+    {
+        mStateMachine.setState(state);
+    }
+
+    /**
+     * 状态变化监听
+     */
+    private final PlayerStateMachine.StateListener mStateListener = new PlayerStateMachine.StateListener()
+    {
+        @Override
+        public void onStateChanged(State oldState, State newState)
+        {
+            final PlayerMetrics metrics = mMetrics;
+            if (metrics != null)
+                metrics.onStateChanged(oldState, newState);
+
+            switch (newState)
+            {
+                case Initialized:
+                case Stopped:
+                    // 没完成的seek不会再回调，否则一直处于seek中；出错的时候走resetPlayer()已经清除
+                    mIsSeeking = false;
+                    mPendingSeekPosition = -1;
+                    mIsPlayRangeSeeking = false;
+                    if (newState == State.Initialized)
+                    {
+                        if (oldState == State.Idle)
+                            mQoe.newSession();
+                        setDataInitialized(true);
+                    }
+                    break;
+                case Idle:
+                case Released:
+                    mIsBuffering = false;
+                    mBufferedPercent = 0;
+                    mIsPlayRangeSeeking = false;
+                    mPlayRangeRemaining = mPlayRangeRepeatCount;
+                    break;
+                default:
+                    break;
+            }
+
+            updateQoe(newState == State.Playing, mIsBuffering);
+
+            updateWatchdog(oldState, newState);
+            updateProgressTicker();
+            syncPlaybackClock();
+            updatePlayRangeTimer(newState == State.Playing && oldState != State.Playing);
+            if (newState == State.Playing && mFadeInPending)
+            {
+                mFadeInPending = false;
+                startFade(1.0f, mLeftVolume, mRightVolume, mStartFadeDuration, FADE_ACTION_NONE);
             }
-        } catch (Exception e)
+            dispatchStateChange(oldState, newState);
+        }
+    };
+
+    /**
+     * 把状态变化加入队列，如果还没安排分发的话，按回调的执行线程安排一次分发
+     */
+    private void dispatchStateChange(State oldState, State newState)
+    {
+        if (!mStateChangeDispatcher.offer(oldState, newState))
+            return;
+
+        final Executor executor = mCallbackExecutor;
+        if (executor != null)
+            executor.execute(mStateChangeDispatcher);
+        else if (Looper.myLooper() == Looper.getMainLooper())
+            mStateChangeDispatcher.run();
+        else
+            mHandler.post(mStateChangeDispatcher);
+    }
+
+    /**
+     * 进入准备状态的时候开始计时，离开准备状态或者播放状态的时候取消计时
+     */
+    private void updateWatchdog(State oldState, State newState)
+    {
+        if (oldState == State.Preparing)
+            PlayerWatchdog.getInstance().cancel(mPrepareTimeoutTask);
+        if (oldState == State.Playing)
+            PlayerWatchdog.getInstance().cancel(mStallTimeoutTask);
+
+        if (newState == State.Preparing)
         {
-            notifyException(e);
+            final long timeout = mPrepareTimeout;
+            if (timeout > 0)
+            {
+                mPrepareStartNanos = PlaybackClock.nowNanos();
+                PlayerWatchdog.getInstance().schedule(mPrepareTimeoutTask, timeout);
+            }
+        } else if (newState == State.Playing && mIsBuffering)
+        {
+            startStallWatchdog();
         }
+
+        final long idleTimeout = mIdleReclaimTimeout;
+        if (idleTimeout > 0 && isReclaimable(newState))
+            scheduleReclaim(idleTimeout);
+        else
+            cancelReclaim();
+    }
+
+    private void scheduleReclaim(long timeout)
+    {
+        mReclaimScheduled = true;
+        PlayerWatchdog.getInstance().schedule(mReclaimTask, timeout);
+    }
+
+    private void cancelReclaim()
+    {
+        mReclaimScheduled = false;
+        PlayerWatchdog.getInstance().cancel(mReclaimTask);
     }
 
     /**
-     * 开始播放
+     * 空闲回收是否已经安排
+     *
+     * @return
      */
-    public void start()
+    boolean isReclaimScheduled()
     {
-        switch (mState)
+        return mReclaimScheduled;
+    }
+
+    private static boolean isReclaimable(State state)
+    {
+        switch (state)
         {
+            case Idle:
             case Initialized:
-                prepareAsyncPlayer();
-                break;
             case Prepared:
-                startPlayer();
-                break;
             case Paused:
-                startPlayer();
-                break;
             case Completed:
-                startPlayer();
-                break;
             case Stopped:
-                prepareAsyncPlayer();
-                break;
+                return true;
             default:
-                break;
+                return false;
         }
     }
 
     /**
-     * 暂停播放
+     * 回收MediaPlayer，状态和数据源保持不变
      */
-    public void pause()
+    private void reclaim()
+    {
+        final State state = getState();
+        if (mPlayer == null || mIsReclaimed || mIsRestoring || !isReclaimable(state))
+            return;
+
+        if (state != State.Idle)
+        {
+            if (state == State.Paused || state == State.Prepared)
+                mReclaimedPosition = (int) mPlaybackClock.getPosition();
+            else if (state == State.Initialized && mRestorePosition >= 0)
+                mReclaimedPosition = mRestorePosition;
+            else
+                mReclaimedPosition = 0;
+
+            mIsSeeking = false;
+            mPendingSeekPosition = -1;
+            mIsReclaimed = true;
+        }
+
+        mReclaimCount++;
+        PlayerWatchdog.getInstance().releaseAsync(takePlayer());
+    }
+
+    /**
+     * 重新创建被回收的MediaPlayer，设置原来的数据源后准备，准备完毕后seek到原来的位置开始播放
+     * <p>
+     * 对外是透明的：Initialized和Stopped状态本来就要重新准备，按正常流程走；其他状态不改变状态地准备和seek，完成后再开始播放，
+     * 观察者只看到一次真实的开始播放
+     */
+    private void restoreReclaimedPlayer()
+    {
+        mIsReclaimed = false;
+        ensurePlayer();
+        try
+        {
+            if (mDataRawResId != 0)
+                setPlayerDataSource(mDataRawResId, mDataContext);
+            else
+                setPlayerDataSource(mDataPath);
+        } catch (Exception e)
+        {
+            resetPlayer();
+            notifyException(e);
+            return;
+        }
+        setDataInitialized(true);
+
+        final State state = getState();
+        if (state == State.Initialized || state == State.Stopped)
+        {
+            if (mReclaimedPosition > 0)
+            {
+                mRestorePosition = mReclaimedPosition;
+                mRestoreAutoStart = true;
+            }
+            startInternal();
+            return;
+        }
+
+        cancelReclaim();
+        mIsRestoring = true;
+        mRestoreStartPending = true;
+        try
+        {
+            mPlayer.prepareAsync();
+        } catch (IllegalStateException e)
+        {
+            mIsRestoring = false;
+            resetPlayer();
+            notifyException(e);
+        }
+    }
+
+    /**
+     * 不改变状态的重新准备完毕
+     */
+    private void onRestorePrepared()
+    {
+        if (mReclaimedPosition > 0)
+            seekPlayer(mReclaimedPosition);
+        else
+            finishSilentRestore();
+    }
+
+    /**
+     * 不改变状态的重新准备和seek完成，需要的话开始播放，否则重新开始空闲回收计时
+     */
+    private void finishSilentRestore()
+    {
+        mIsRestoring = false;
+        syncPlaybackClock();
+
+        if (mRestoreStartPending)
+        {
+            mRestoreStartPending = false;
+            startInternal();
+        } else
+        {
+            final long idleTimeout = mIdleReclaimTimeout;
+            if (idleTimeout > 0)
+                scheduleReclaim(idleTimeout);
+        }
+    }
+
+    /**
+     * 不改变状态的重新准备过程中停止，丢弃正在准备的MediaPlayer，回到被回收的状态
+     */
+    private void abortSilentRestore()
+    {
+        mIsRestoring = false;
+        mRestoreStartPending = false;
+        mIsSeeking = false;
+        mPendingSeekPosition = -1;
+        mIsReclaimed = true;
+        PlayerWatchdog.getInstance().releaseAsync(takePlayer());
+    }
+
+    /**
+     * 更新播放体验统计，卡顿次数和{@link PlayerMetrics}用同一个判断
+     */
+    private void updateQoe(boolean playing, boolean buffering)
+    {
+        if (mQoe.update(playing, buffering))
+        {
+            final PlayerMetrics metrics = mMetrics;
+            if (metrics != null)
+                metrics.onStall();
+        }
+    }
+
+    /**
+     * 播放中开始缓冲
+     */
+    private void startStallWatchdog()
+    {
+        mStallStartNanos = PlaybackClock.nowNanos();
+
+        final long timeout = mBufferingStallTimeout;
+        if (timeout > 0)
+            PlayerWatchdog.getInstance().schedule(mStallTimeoutTask, timeout);
+    }
+
+    /**
+     * 设置是否正在缓冲
+     *
+     * @param buffering
+     */
+    private void setBuffering(boolean buffering)
+    {
+        if (mIsBuffering == buffering)
+            return;
+
+        mIsBuffering = buffering;
+
+        final boolean playing = getState() == State.Playing;
+        updateQoe(playing, buffering);
+
+        if (buffering)
+        {
+            if (playing)
+                startStallWatchdog();
+        } else
+        {
+            PlayerWatchdog.getInstance().cancel(mStallTimeoutTask);
+        }
+
+        syncPlaybackClock();
+        updatePlayRangeTimer(false);
+
+        if (mOnBufferingChangeListener != null)
+            mOnBufferingChangeListener.onBufferingChanged(this, buffering);
+    }
+
+    /**
+     * 超时触发器的任务到期，在命令线程或者主线程处理
+     *
+     * @param task {@link WatchdogTask#PREPARE_TIMEOUT}，{@link WatchdogTask#STALL_TIMEOUT}，{@link WatchdogTask#RECOVER}，{@link WatchdogTask#RECLAIM}，
+     *             {@link WatchdogTask#PLAY_RANGE}
+     */
+    private void handleWatchdog(int task)
     {
-        switch (mState)
+        switch (task)
         {
-            case Playing:
-                pausePlayer();
+            case WatchdogTask.PREPARE_TIMEOUT:
+                handleTimeout(true);
+                break;
+            case WatchdogTask.STALL_TIMEOUT:
+                handleTimeout(false);
+                break;
+            case WatchdogTask.RECOVER:
+                recover();
+                break;
+            case WatchdogTask.RECLAIM:
+                mReclaimScheduled = false;
+                reclaim();
+                break;
+            case WatchdogTask.PLAY_RANGE:
+                handlePlayRangeEnd();
                 break;
             default:
                 break;
@@ -460,80 +2173,309 @@ public class FMediaPlayer
     }
 
     /**
-     * 停止播放
+     * 播放中并且没有缓冲和seek的时候，根据播放时钟为播放范围的结尾安排定时，否则取消定时
+     *
+     * @param checkStart true-刚开始播放或者刚设置播放范围，不在范围内的话回到开始位置
+     */
+    private void updatePlayRangeTimer(boolean checkStart)
+    {
+        final int start = mPlayRangeStart;
+        final int end = mPlayRangeEnd;
+        if (end <= 0 || getState() != State.Playing || mIsBuffering || mIsSeeking)
+        {
+            PlayerWatchdog.getInstance().cancel(mPlayRangeTask);
+            return;
+        }
+
+        final long position = mPlaybackClock.getPosition();
+        if (position >= end - PLAY_RANGE_TOLERANCE || (checkStart && position < start))
+        {
+            PlayerWatchdog.getInstance().cancel(mPlayRangeTask);
+            seekToInternal(start);
+            return;
+        }
+
+        // 最后一遍准时停在结尾，还要重复的话提前seek的耗时发起seek；位置按播放速度换算成实际时间，seek耗时本来就是实际时间
+        final float rate = mPlaybackRate > 0 ? mPlaybackRate : 1.0f;
+        long lead = mPlayRangeRemaining == 0 ? 0 : mPlayRangeSeekLeadNanos / 1000000L;
+        lead = Math.min(lead, (long) ((end - start) / 2 / rate));
+
+        final long delay = (long) ((end - position) / rate) - lead;
+        PlayerWatchdog.getInstance().schedule(mPlayRangeTask, Math.max(0, delay));
+    }
+
+    /**
+     * 到达播放范围的结尾，或者到达提前发起seek的时间
+     */
+    private void handlePlayRangeEnd()
+    {
+        final int end = mPlayRangeEnd;
+        if (end <= 0 || getState() != State.Playing || mIsBuffering || mIsSeeking)
+            return;
+
+        final PlayerMetrics metrics = mMetrics;
+        if (mPlayRangeRemaining == 0)
+        {
+            final int position = mPositionSource.readPosition();
+            pausePlayerInternal();
+            mPlayRangeRemaining = mPlayRangeRepeatCount;
+
+            if (metrics != null)
+                metrics.onPlayRangeBoundary(false, Math.abs(position - end) * 1000000L);
+            if (mOnPlayRangeCompleteListener != null)
+                mOnPlayRangeCompleteListener.onPlayRangeComplete(this);
+            return;
+        }
+
+        if (mPlayRangeRemaining > 0)
+            mPlayRangeRemaining--;
+
+        // 理想情况下seek完成的时刻刚好是播放到结尾的时刻
+        final long now = PlaybackClock.nowNanos();
+        final long remain = Math.max(0, end - mPlaybackClock.getPosition());
+        final float rate = mPlaybackRate > 0 ? mPlaybackRate : 1.0f;
+        mPlayRangeSeekNanos = now;
+        mPlayRangeTargetNanos = now + (long) (remain * 1000000L / rate);
+        mIsPlayRangeSeeking = true;
+        seekPlayer(mPlayRangeStart);
+    }
+
+    /**
+     * 播放范围循环的seek完成，记录误差并更新提前量
+     */
+    private void onPlayRangeSeekComplete()
+    {
+        mIsPlayRangeSeeking = false;
+
+        final long now = PlaybackClock.nowNanos();
+        final long elapsed = now - mPlayRangeSeekNanos;
+        final long lead = mPlayRangeSeekLeadNanos;
+        mPlayRangeSeekLeadNanos = lead == 0 ? elapsed : (lead * 3 + elapsed) / 4;
+
+        final PlayerMetrics metrics = mMetrics;
+        if (metrics != null)
+            metrics.onPlayRangeBoundary(true, Math.abs(now - mPlayRangeTargetNanos));
+    }
+
+    /**
+     * 准备超时或者缓冲卡顿超时
+     *
+     * @param prepare true-准备超时，false-缓冲卡顿超时
+     */
+    private void handleTimeout(boolean prepare)
+    {
+        final long timeout;
+        final long elapsed;
+        if (prepare)
+        {
+            if (getState() != State.Preparing)
+                return;
+            timeout = mPrepareTimeout;
+            elapsed = PlaybackClock.nowNanos() - mPrepareStartNanos;
+        } else
+        {
+            if (getState() != State.Playing || !mIsBuffering)
+                return;
+            timeout = mBufferingStallTimeout;
+            elapsed = PlaybackClock.nowNanos() - mStallStartNanos;
+        }
+
+        // 计时期间状态变化过又回到原来的状态，以新的计时为准
+        if (timeout <= 0 || elapsed < timeout * 1000000L)
+            return;
+
+        final PlayerMetrics metrics = mMetrics;
+        if (metrics != null)
+            metrics.onTimeout(prepare, elapsed);
+
+        if (tryRecover(true))
+            return;
+
+        detachPlayer();
+        finishOpen(OpenHandle.STATUS_FAILED);
+        notifyException(new TimeoutException((prepare ? "prepare" : "buffering") + " timeout after " + timeout + "ms"));
+        failover();
+    }
+
+    /**
+     * 出错或者超时的时候尝试自动恢复，记住当前的数据源和位置，重置播放器后延迟重新准备
+     *
+     * @param recreate true-创建新的MediaPlayer，false-重置当前的MediaPlayer
+     * @return true-已经安排恢复，false-没有开启自动恢复或者重试次数已经用完
+     */
+    private boolean tryRecover(boolean recreate)
+    {
+        if (mRecoveryMaxRetries <= 0)
+            return false;
+        // 恢复过程中重新打开失败的话数据源已经被清空，用恢复开始时记住的数据源
+        if (!mIsRecovering && mDataPath == null && mDataRawResId == 0)
+            return false;
+
+        if (mRecoveryAttempts >= mRecoveryMaxRetries)
+        {
+            failRecovery();
+            return false;
+        }
+
+        if (!mIsRecovering)
+        {
+            // 同一次恢复过程中再次出错的话，保留第一次出错时的位置
+            final State state = getState();
+            mIsRecovering = true;
+            mRecoveryStartNanos = PlaybackClock.nowNanos();
+            mRecoverPosition = mRestorePosition >= 0 ? mRestorePosition : (int) mPlaybackClock.getPosition();
+            mRecoverAutoStart = mRestorePosition >= 0 ? mRestoreAutoStart
+                    : (state == State.Preparing || state == State.Prepared || state == State.Playing);
+            mRecoverPath = mDataPath;
+            mRecoverRawResId = mDataRawResId;
+        }
+
+        if (recreate)
+            detachPlayer();
+        else
+            resetPlayer();
+
+        final long delay = mRecoveryDelay << Math.min(mRecoveryAttempts, 10);
+        mRecoveryAttempts++;
+        PlayerWatchdog.getInstance().schedule(mRecoverTask, delay);
+        return true;
+    }
+
+    /**
+     * 重新设置数据并准备，准备完毕后seek到原来的位置
+     */
+    private void recover()
+    {
+        if (!mIsRecovering)
+            return;
+
+        final boolean opened = mRecoverRawResId != 0
+                ? openDataRawResId(mRecoverRawResId, mDataContext)
+                : openDataPath(mRecoverPath);
+        if (!opened)
+        {
+            // 按退避继续重试，重试次数用完后才通知异常
+            if (tryRecover(false))
+                return;
+
+            final Exception e = mRecoveryException;
+            mRecoveryException = null;
+            failRecovery();
+            if (e != null)
+                notifyException(e);
+            return;
+        }
+
+        mRecoveryException = null;
+        mRestorePosition = mRecoverPosition;
+        mRestoreAutoStart = mRecoverAutoStart;
+        startInternal();
+    }
+
+    /**
+     * 自动恢复失败
+     */
+    private void failRecovery()
+    {
+        if (mIsRecovering)
+        {
+            mIsRecovering = false;
+            final PlayerMetrics metrics = mMetrics;
+            if (metrics != null)
+                metrics.onRecovery(false, PlaybackClock.nowNanos() - mRecoveryStartNanos);
+        }
+        finishOpen(OpenHandle.STATUS_FAILED);
+    }
+
+    /**
+     * 取消自动恢复
      */
-    public void stop()
+    private void cancelRecovery()
     {
-        switch (mState)
+        mRecoveryException = null;
+        if (mIsRecovering)
         {
-            case Prepared:
-                stopPlayer();
-                break;
-            case Playing:
-                stopPlayer();
-                break;
-            case Paused:
-                stopPlayer();
-                break;
-            case Completed:
-                stopPlayer();
-                break;
-            default:
-                break;
+            mIsRecovering = false;
+            PlayerWatchdog.getInstance().cancel(mRecoverTask);
         }
     }
 
     /**
-     * 重置播放器，重置之后需要重新设置数据才能播放
+     * 准备完毕并且已经seek到要恢复的位置
      */
-    public void reset()
+    private void finishRestore()
     {
-        if (mState == State.Released)
-            return;
+        final boolean autoStart = mRestorePosition < 0 || mRestoreAutoStart;
+        mRestorePosition = -1;
 
-        stop();
-        resetPlayer();
+        if (mIsRecovering)
+        {
+            mIsRecovering = false;
+            final PlayerMetrics metrics = mMetrics;
+            if (metrics != null)
+                metrics.onRecovery(true, PlaybackClock.nowNanos() - mRecoveryStartNanos);
+        }
+
+        if (autoStart)
+            startInternal();
+
+        finishOpen(OpenHandle.STATUS_SUCCESS);
     }
 
     /**
-     * 释放播放器，用于不再需要播放器的时候调用，调用此方法后，如果还要继续使用的话，需要调用init()方法初始化
+     * 丢弃卡住的MediaPlayer，下次设置数据的时候创建新的，卡住的MediaPlayer在后台线程重置和释放
      */
-    public void release()
+    private void detachPlayer()
     {
-        stop();
-        releasePlayer();
+        final MediaPlayer stuck = takePlayer();
+        clearDataInternal();
+        setState(State.Idle);
+
+        PlayerWatchdog.getInstance().releaseAsync(stuck);
     }
 
     /**
-     * 返回当前状态
-     *
-     * @return
+     * 播放状态并且设置了进度回调的时候，注册到进度触发器
      */
-    public State getState()
+    private void updateProgressTicker()
     {
-        return mState;
+        if (getState() == State.Playing && mOnProgressCallback != null)
+            ProgressTicker.getInstance().register(this);
+        else
+            ProgressTicker.getInstance().unregister(this);
     }
 
-    private void setState(State state)
+    /**
+     * 读取真实的播放位置重新设置播放时钟，状态变化和seek完成的时候调用，不计入误差
+     */
+    private void syncPlaybackClock()
     {
-        if (mState != state)
+        final boolean running = getState() == State.Playing && !mIsBuffering;
+        final MediaPlayer player = mPlayer;
+        if (running && player != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
         {
-            final State oldState = mState;
-
-            mState = state;
-
-            switch (mState)
+            try
             {
-                case Initialized:
-                    setDataInitialized(true);
-                    break;
-                default:
-                    break;
+                mPlaybackRate = player.getPlaybackParams().getSpeed();
+            } catch (Exception e)
+            {
+                mPlaybackRate = 1.0f;
             }
-
-            final NotifyStateChangeRunnable runnable = new NotifyStateChangeRunnable(oldState, mState);
-            runnable.runOnUiThread();
         }
+
+        final int position = mPositionSource.readPosition();
+        mPlaybackClock.reset(position < 0 ? 0 : position, running, mPlaybackRate);
+        notifyTimelineChanged(-1);
+    }
+
+    /**
+     * 由进度触发器在主线程调用
+     */
+    void dispatchProgress()
+    {
+        final OnProgressCallback callback = mOnProgressCallback;
+        if (callback != null && getState() == State.Playing)
+            callback.onProgress(this, (int) mPlaybackClock.getPosition(), getDuration());
     }
 
     /**
@@ -547,40 +2489,19 @@ public class FMediaPlayer
 
         if (mIsDataInitialized)
         {
-            setDisplay(getSurfaceHolder());
-            setLooping(mIsLooping);
+            applyDisplay();
+            applyLooping();
         }
     }
 
-    private void prepareAsyncPlayer()
-    {
-        mPlayer.prepareAsync();
-        setState(State.Preparing);
-    }
-
-    private void startPlayer()
-    {
-        mPlayer.start();
-        setState(State.Playing);
-    }
-
-    private void pausePlayer()
-    {
-        mPlayer.pause();
-        setState(State.Paused);
-    }
-
-    private void stopPlayer()
-    {
-        mPlayer.stop();
-        setState(State.Stopped);
-    }
-
     private void resetPlayer()
     {
         resetDataInternal();
+        mIsReclaimed = false;
 
-        mPlayer.reset();
+        final MediaPlayer player = mPlayer;
+        if (player != null)
+            player.reset();
         setState(State.Idle);
     }
 
@@ -588,19 +2509,57 @@ public class FMediaPlayer
     {
         resetDataInternal();
         setSurfaceHolder(null);
+        mSurface = null;
+        mRawResourceCache.clear();
+        mIsReclaimed = false;
 
-        mPlayer.release();
+        final MediaPlayer player = takePlayer();
+        if (player != null)
+            player.release();
         setState(State.Released);
         mHasInit = false;
+
+        final PlayerMetrics metrics = mMetrics;
+        if (metrics != null)
+            PlayerMetrics.unregister(metrics);
+    }
+
+    private void seekPlayer(int position)
+    {
+        mIsSeeking = true;
+        notifyTimelineChanged(position);
+
+        final PlayerMetrics metrics = mMetrics;
+        if (metrics != null)
+            metrics.onSeekStart();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            mPlayer.seekTo(position, mSeekMode.mode);
+        else
+            mPlayer.seekTo(position);
     }
 
     private void resetDataInternal()
+    {
+        clearDataInternal();
+        final MediaPlayer player = mPlayer;
+        if (player != null)
+            player.setDisplay(null);
+    }
+
+    private void clearDataInternal()
     {
         mDataPath = null;
         mDataRawResId = 0;
+        mRestorePosition = -1;
+        mIsRestoring = false;
+        mRestoreStartPending = false;
+        mIsSeeking = false;
+        mPendingSeekPosition = -1;
+        mDuration = -1;
+        mVideoWidth = 0;
+        mVideoHeight = 0;
         setDataInitialized(false);
-        if (mState != State.Released)
-            mPlayer.setDisplay(null);
     }
 
     /**
@@ -623,8 +2582,18 @@ public class FMediaPlayer
         @Override
         public boolean onError(MediaPlayer mp, int what, int extra)
         {
+            if (mp != mPlayer)
+                return true;
+
+            if (tryRecover(what == MediaPlayer.MEDIA_ERROR_SERVER_DIED))
+                return true;
+
+            final boolean preparing = getState() == State.Preparing;
             resetPlayer();
+            finishOpen(OpenHandle.STATUS_FAILED);
             notifyException(new RuntimeException(mp + ":" + what + "," + extra));
+            if (preparing)
+                failover();
             return true;
         }
     };
@@ -637,8 +2606,21 @@ public class FMediaPlayer
         @Override
         public void onPrepared(MediaPlayer mp)
         {
+            if (mp != mPlayer)
+                return;
+
+            mDuration = mp.getDuration();
+            if (mIsRestoring)
+            {
+                onRestorePrepared();
+                return;
+            }
             setState(State.Prepared);
-            start();
+
+            if (mRestorePosition > 0)
+                seekPlayer(mRestorePosition);
+            else
+                finishRestore();
 
             if (mOnPreparedListener != null)
                 mOnPreparedListener.onPrepared(FMediaPlayer.this);
@@ -653,6 +2635,9 @@ public class FMediaPlayer
         @Override
         public void onCompletion(MediaPlayer mp)
         {
+            if (mp != mPlayer)
+                return;
+
             setState(State.Completed);
 
             if (mOnCompletionListener != null)
@@ -668,46 +2653,314 @@ public class FMediaPlayer
         @Override
         public void onVideoSizeChanged(MediaPlayer mp, int width, int height)
         {
+            if (mp != mPlayer)
+                return;
+
+            mVideoWidth = width;
+            mVideoHeight = height;
+
             if (mOnVideoSizeChangedListener != null)
                 mOnVideoSizeChangedListener.onVideoSizeChanged(FMediaPlayer.this, width, height);
         }
     };
 
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * seek完成监听
+     */
+    private final MediaPlayer.OnSeekCompleteListener mInternalOnSeekCompleteListener = new MediaPlayer.OnSeekCompleteListener()
+    {
+        @Override
+        public void onSeekComplete(MediaPlayer mp)
+        {
+            if (mp != mPlayer)
+                return;
+
+            mIsSeeking = false;
+
+            final PlayerMetrics metrics = mMetrics;
+            if (metrics != null)
+                metrics.onSeekComplete();
+
+            final boolean playRangeSeek = mIsPlayRangeSeeking;
+            if (playRangeSeek)
+                onPlayRangeSeekComplete();
+
+            if (mPendingSeekPosition >= 0)
+            {
+                final int position = mPendingSeekPosition;
+                mPendingSeekPosition = -1;
+                seekPlayer(position);
+                return;
+            }
+
+            if (mIsRestoring)
+            {
+                finishSilentRestore();
+                return;
+            }
+
+            syncPlaybackClock();
+            updatePlayRangeTimer(false);
+
+            if (mRestorePosition >= 0)
+            {
+                finishRestore();
+                return;
+            }
+
+            // 播放范围循环的seek不通知
+            if (playRangeSeek)
+                return;
+
+            if (mOnSeekCompleteListener != null)
+                mOnSeekCompleteListener.onSeekComplete(FMediaPlayer.this);
+        }
+    };
 
-    private final class NotifyStateChangeRunnable implements Runnable
+    /**
+     * 信息监听
+     */
+    private final MediaPlayer.OnInfoListener mInternalOnInfoListener = new MediaPlayer.OnInfoListener()
     {
-        private final State mOldState;
-        private final State mNewState;
+        @Override
+        public boolean onInfo(MediaPlayer mp, int what, int extra)
+        {
+            if (mp != mPlayer)
+                return false;
+
+            switch (what)
+            {
+                case MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START:
+                    final PlayerMetrics metrics = mMetrics;
+                    if (metrics != null)
+                        metrics.onFirstFrame();
+                    break;
+                case MediaPlayer.MEDIA_INFO_BUFFERING_START:
+                    setBuffering(true);
+                    break;
+                case MediaPlayer.MEDIA_INFO_BUFFERING_END:
+                    setBuffering(false);
+                    break;
+                default:
+                    break;
+            }
+            return false;
+        }
+    };
 
-        public NotifyStateChangeRunnable(State oldState, State newState)
+    /**
+     * 缓冲进度监听
+     */
+    private final MediaPlayer.OnBufferingUpdateListener mInternalOnBufferingUpdateListener = new MediaPlayer.OnBufferingUpdateListener()
+    {
+        @Override
+        public void onBufferingUpdate(MediaPlayer mp, int percent)
         {
-            mOldState = oldState;
-            mNewState = newState;
+            if (mp != mPlayer)
+                return;
+
+            mBufferedPercent = percent;
         }
+    };
 
+    /**
+     * 播放引擎，调用当前的MediaPlayer
+     */
+    private final PlayerEngine mEngine = new PlayerEngine()
+    {
         @Override
-        public void run()
+        public void prepareAsync()
+        {
+            mPlayer.prepareAsync();
+        }
+
+        @Override
+        public void start()
+        {
+            mPlayer.start();
+        }
+
+        @Override
+        public void pause()
+        {
+            mPlayer.pause();
+        }
+
+        @Override
+        public void stop()
+        {
+            // 已经被回收的话只改变状态
+            final MediaPlayer player = mPlayer;
+            if (player != null)
+                player.stop();
+        }
+
+        @Override
+        public int getDuration()
+        {
+            final int duration = mDuration;
+            if (duration >= 0)
+                return duration;
+            return mIsReclaimed || mIsRestoring ? 0 : getPlayer().getDuration();
+        }
+
+        @Override
+        public int getCurrentPosition()
+        {
+            return mIsReclaimed || mIsRestoring ? mReclaimedPosition : getPlayer().getCurrentPosition();
+        }
+    };
+
+    /**
+     * 播放时钟读取真实位置
+     */
+    private final PlaybackClock.PositionSource mPositionSource = new PlaybackClock.PositionSource()
+    {
+        @Override
+        public int readPosition()
         {
-            if (mOnStateChangeCallbackHolder != null)
+            if (!mStateMachine.canExecute(PlayerStateMachine.CMD_GET_POSITION))
+                return -1;
+
+            try
             {
-                mOnStateChangeCallbackHolder.foreach(new ObserverHolder.ForeachCallback<OnStateChangeCallback>()
-                {
-                    @Override
-                    public void onNext(OnStateChangeCallback observer)
-                    {
-                        observer.onStateChanged(FMediaPlayer.this, mOldState, mNewState);
-                    }
-                });
+                return mStateMachine.getCurrentPosition();
+            } catch (IllegalStateException e)
+            {
+                return -1;
+            }
+        }
+
+        @Override
+        public boolean isRunning()
+        {
+            return getState() == State.Playing && !mIsBuffering;
+        }
+
+        @Override
+        public float getRate()
+        {
+            return mPlaybackRate;
+        }
+    };
+
+    /**
+     * 命令线程执行命令
+     */
+    private final PlayerCommandQueue.CommandExecutor mCommandExecutor = new PlayerCommandQueue.CommandExecutor()
+    {
+        @Override
+        public void execute(int cmd, int arg, Object obj)
+        {
+            switch (cmd)
+            {
+                case PlayerCommandQueue.CMD_INIT:
+                    initInternal();
+                    break;
+                case PlayerCommandQueue.CMD_SET_DATA_PATH:
+                    setDataPathInternal((String) obj);
+                    break;
+                case PlayerCommandQueue.CMD_SET_DATA_RAW:
+                    setDataRawResIdInternal(arg, (Context) obj);
+                    break;
+                case PlayerCommandQueue.CMD_START:
+                    startInternal();
+                    break;
+                case PlayerCommandQueue.CMD_PAUSE:
+                    pauseInternal();
+                    break;
+                case PlayerCommandQueue.CMD_STOP:
+                    stopInternal();
+                    break;
+                case PlayerCommandQueue.CMD_SEEK:
+                    seekToInternal(arg);
+                    break;
+                case PlayerCommandQueue.CMD_TOGGLE_PAUSE:
+                    togglePlayInside(false);
+                    break;
+                case PlayerCommandQueue.CMD_TOGGLE_STOP:
+                    togglePlayInside(true);
+                    break;
+                case PlayerCommandQueue.CMD_RESET:
+                    resetInternal();
+                    break;
+                case PlayerCommandQueue.CMD_RELEASE:
+                    releaseInternal();
+                    break;
+                case PlayerCommandQueue.CMD_APPLY_VOLUME:
+                    applyVolume();
+                    break;
+                case PlayerCommandQueue.CMD_APPLY_LOOPING:
+                    applyLooping();
+                    break;
+                case PlayerCommandQueue.CMD_APPLY_DISPLAY:
+                    applyDisplay();
+                    break;
+                case PlayerCommandQueue.CMD_APPLY_PLAY_RANGE:
+                    applyPlayRange((int[]) obj);
+                    break;
+                case PlayerCommandQueue.CMD_FADE_TO:
+                    fadeToInternal((Float) obj, arg);
+                    break;
+                case PlayerCommandQueue.CMD_FADE_END:
+                    handleFadeEnd();
+                    break;
+                case PlayerCommandQueue.CMD_WATCHDOG:
+                    handleWatchdog(arg);
+                    break;
+                case PlayerCommandQueue.CMD_OPEN:
+                    openInternal((OpenHandle) obj);
+                    break;
+                case PlayerCommandQueue.CMD_CANCEL_OPEN:
+                    cancelOpenInternal((OpenHandle) obj);
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final WatchdogTask mPrepareTimeoutTask = new WatchdogTask(WatchdogTask.PREPARE_TIMEOUT);
+    private final WatchdogTask mStallTimeoutTask = new WatchdogTask(WatchdogTask.STALL_TIMEOUT);
+    private final WatchdogTask mRecoverTask = new WatchdogTask(WatchdogTask.RECOVER);
+    private final WatchdogTask mReclaimTask = new WatchdogTask(WatchdogTask.RECLAIM);
+    private final WatchdogTask mPlayRangeTask = new WatchdogTask(WatchdogTask.PLAY_RANGE);
+
+    /**
+     * 超时触发器的任务，在共享的超时线程到期后转到命令线程处理，没有指定命令线程的话转到主线程处理
+     */
+    private final class WatchdogTask implements Runnable
+    {
+        static final int PREPARE_TIMEOUT = 0;
+        static final int STALL_TIMEOUT = 1;
+        static final int RECOVER = 2;
+        static final int RECLAIM = 3;
+        static final int PLAY_RANGE = 4;
+
+        private final int mTask;
+        private final Runnable mHandleRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                handleWatchdog(mTask);
             }
+        };
+
+        public WatchdogTask(int task)
+        {
+            mTask = task;
         }
 
-        public void runOnUiThread()
+        @Override
+        public void run()
         {
-            if (Looper.myLooper() == Looper.getMainLooper())
-                run();
+            if (mCommandQueue != null)
+                mCommandQueue.post(PlayerCommandQueue.CMD_WATCHDOG, mTask, null);
             else
-                mHandler.post(this);
+                mHandler.post(mHandleRunnable);
         }
     }
 
@@ -753,6 +3006,29 @@ public class FMediaPlayer
         Stopped;
     }
 
+    public enum SeekMode
+    {
+        /**
+         * seek到目标位置之前最近的关键帧，速度最快
+         */
+        PreviousSync(MediaPlayer.SEEK_PREVIOUS_SYNC),
+        /**
+         * seek到离目标位置最近的关键帧，需要API 26
+         */
+        ClosestSync(MediaPlayer.SEEK_CLOSEST_SYNC),
+        /**
+         * seek到目标位置的帧，最精确，需要API 26
+         */
+        Closest(MediaPlayer.SEEK_CLOSEST);
+
+        final int mode;
+
+        SeekMode(int mode)
+        {
+            this.mode = mode;
+        }
+    }
+
     public interface OnStateChangeCallback
     {
         /**
@@ -765,6 +3041,18 @@ public class FMediaPlayer
         void onStateChanged(FMediaPlayer player, State oldState, State newState);
     }
 
+    public interface OnProgressCallback
+    {
+        /**
+         * 播放进度回调
+         *
+         * @param player
+         * @param currentPosition 当前播放的进度位置（毫秒）
+         * @param totalDuration   总时长（毫秒）
+         */
+        void onProgress(FMediaPlayer player, int currentPosition, int totalDuration);
+    }
+
     public interface OnExceptionCallback
     {
         /**
@@ -798,6 +3086,37 @@ public class FMediaPlayer
         void onCompletion(FMediaPlayer player);
     }
 
+    public interface OnSeekCompleteListener
+    {
+        /**
+         * seek完成回调
+         *
+         * @param player
+         */
+        void onSeekComplete(FMediaPlayer player);
+    }
+
+    public interface OnBufferingChangeListener
+    {
+        /**
+         * 缓冲状态变化回调
+         *
+         * @param player
+         * @param buffering true-开始缓冲，false-缓冲结束
+         */
+        void onBufferingChanged(FMediaPlayer player, boolean buffering);
+    }
+
+    public interface OnPlayRangeCompleteListener
+    {
+        /**
+         * 播放范围重复完毕，已经停在结尾并暂停
+         *
+         * @param player
+         */
+        void onPlayRangeComplete(FMediaPlayer player);
+    }
+
     public interface OnPreparedListener
     {
         /**
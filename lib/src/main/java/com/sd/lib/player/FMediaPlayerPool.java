@@ -0,0 +1,195 @@
+package com.sd.lib.player;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * 播放器池，回收的播放器只调用reset()而不调用release()，下次获取的时候可以直接复用，避免频繁创建和销毁底层MediaPlayer
+ */
+public class FMediaPlayerPool
+{
+    private final int mMaxIdleSize;
+    private final int mMaxSize;
+
+    private final LinkedList<FMediaPlayer> mIdlePlayers = new LinkedList<>();
+    /**
+     * 已经取出还未回收的播放器
+     */
+    private final HashSet<FMediaPlayer> mActivePlayers = new HashSet<>();
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxIdleSize 最多缓存多少个空闲的播放器
+     * @param maxSize     最多同时存在多少个播放器（包括已经取出的和空闲的），用于限制硬件解码器的使用数量
+     */
+    public FMediaPlayerPool(int maxIdleSize, int maxSize)
+    {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize must be > 0");
+        if (maxIdleSize < 0 || maxIdleSize > maxSize)
+            throw new IllegalArgumentException("maxIdleSize must be in [0, maxSize]");
+
+        mMaxIdleSize = maxIdleSize;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 预先创建空闲的播放器
+     *
+     * @param count 要预创建的数量，不会超过maxIdleSize和maxSize的限制
+     */
+    public synchronized void prewarm(int count)
+    {
+        while (count > 0
+                && mIdlePlayers.size() < mMaxIdleSize
+                && mIdlePlayers.size() + mActivePlayers.size() < mMaxSize)
+        {
+            final FMediaPlayer player = new FMediaPlayer();
+            player.prewarmPlayer();
+            mIdlePlayers.add(player);
+            count--;
+        }
+    }
+
+    /**
+     * 获取一个{@link FMediaPlayer.State#Idle}状态的播放器
+     *
+     * @return 如果已经达到maxSize的限制，返回null
+     */
+    public synchronized FMediaPlayer acquire()
+    {
+        FMediaPlayer player = mIdlePlayers.poll();
+        if (player != null)
+        {
+            mHitCount++;
+            mActivePlayers.add(player);
+            return player;
+        }
+
+        if (mActivePlayers.size() >= mMaxSize)
+            return null;
+
+        mMissCount++;
+        player = new FMediaPlayer();
+        mActivePlayers.add(player);
+        return player;
+    }
+
+    /**
+     * 回收播放器，播放器会被reset()并且恢复默认的设置，如果空闲缓存已满则会被release()；
+     * 不是从这个池取出的或者已经回收过的播放器会被忽略
+     *
+     * @param player
+     */
+    public void release(FMediaPlayer player)
+    {
+        if (player == null)
+            return;
+
+        synchronized (this)
+        {
+            if (!mActivePlayers.remove(player))
+                return;
+        }
+
+        player.clearListeners();
+
+        final boolean alive = player.getState() != FMediaPlayer.State.Released;
+        if (alive)
+        {
+            player.reset();
+            player.clearSettings();
+        }
+
+        boolean evict = false;
+        synchronized (this)
+        {
+            if (alive)
+            {
+                if (mIdlePlayers.size() < mMaxIdleSize)
+                {
+                    mIdlePlayers.add(player);
+                } else
+                {
+                    evict = true;
+                    mEvictionCount++;
+                }
+            }
+        }
+
+        if (evict)
+            player.release();
+    }
+
+    /**
+     * 释放所有空闲的播放器
+     */
+    public void clear()
+    {
+        final FMediaPlayer[] players;
+        synchronized (this)
+        {
+            players = mIdlePlayers.toArray(new FMediaPlayer[0]);
+            mIdlePlayers.clear();
+            mEvictionCount += players.length;
+        }
+
+        for (FMediaPlayer item : players)
+        {
+            item.release();
+        }
+    }
+
+    /**
+     * 返回空闲的播放器数量
+     *
+     * @return
+     */
+    public synchronized int getIdleCount()
+    {
+        return mIdlePlayers.size();
+    }
+
+    /**
+     * 返回已经取出还未回收的播放器数量
+     *
+     * @return
+     */
+    public synchronized int getActiveCount()
+    {
+        return mActivePlayers.size();
+    }
+
+    /**
+     * 返回从空闲缓存中获取到播放器的次数
+     *
+     * @return
+     */
+    public synchronized long getHitCount()
+    {
+        return mHitCount;
+    }
+
+    /**
+     * 返回需要新创建播放器的次数
+     *
+     * @return
+     */
+    public synchronized long getMissCount()
+    {
+        return mMissCount;
+    }
+
+    /**
+     * 返回因为空闲缓存已满而被释放的播放器数量
+     *
+     * @return
+     */
+    public synchronized long getEvictionCount()
+    {
+        return mEvictionCount;
+    }
+}
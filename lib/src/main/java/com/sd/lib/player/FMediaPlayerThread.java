@@ -0,0 +1,31 @@
+package com.sd.lib.player;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * 播放器共享的命令线程
+ */
+public final class FMediaPlayerThread
+{
+    private static HandlerThread sThread;
+
+    private FMediaPlayerThread()
+    {
+    }
+
+    /**
+     * 返回共享命令线程的Looper，第一次调用的时候会启动线程
+     *
+     * @return
+     */
+    public static synchronized Looper getLooper()
+    {
+        if (sThread == null)
+        {
+            sThread = new HandlerThread("FMediaPlayerThread");
+            sThread.start();
+        }
+        return sThread.getLooper();
+    }
+}
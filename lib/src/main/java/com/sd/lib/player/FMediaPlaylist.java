@@ -0,0 +1,576 @@
+package com.sd.lib.player;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaPlayer;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 无缝播放列表，当前项播放的时候会用第二个MediaPlayer准备下一项，并通过{@link MediaPlayer#setNextMediaPlayer(MediaPlayer)}衔接
+ * <p>
+ * 需要在有Looper的线程（一般是主线程）调用
+ */
+public class FMediaPlaylist
+{
+    private final Context mContext;
+    private final List<Item> mItems = new ArrayList<>();
+
+    private MediaPlayer mCurrentPlayer;
+    private int mCurrentIndex = -1;
+    private FMediaPlayer.State mCurrentState = FMediaPlayer.State.Idle;
+
+    private MediaPlayer mNextPlayer;
+    private int mNextIndex = -1;
+    private boolean mIsNextPrepared;
+    private boolean mStartNextWhenPrepared;
+    /**
+     * 连续跳过准备失败的下一项的次数，超过列表数量的话不再准备
+     */
+    private int mNextSkipCount;
+
+    private boolean mIsLooping;
+    private float mLeftVolume = 1.0f;
+    private float mRightVolume = 1.0f;
+
+    private OnItemStateChangeCallback mOnItemStateChangeCallback;
+    private OnItemCompletionListener mOnItemCompletionListener;
+    private OnExceptionCallback mOnExceptionCallback;
+
+    public FMediaPlaylist(Context context)
+    {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * 设置某一项状态变化回调
+     *
+     * @param callback
+     */
+    public void setOnItemStateChangeCallback(OnItemStateChangeCallback callback)
+    {
+        mOnItemStateChangeCallback = callback;
+    }
+
+    /**
+     * 设置某一项播放完毕回调
+     *
+     * @param listener
+     */
+    public void setOnItemCompletionListener(OnItemCompletionListener listener)
+    {
+        mOnItemCompletionListener = listener;
+    }
+
+    /**
+     * 设置异常回调
+     *
+     * @param callback
+     */
+    public void setOnExceptionCallback(OnExceptionCallback callback)
+    {
+        mOnExceptionCallback = callback;
+    }
+
+    /**
+     * 添加本地文件路径或者链接地址
+     *
+     * @param path
+     */
+    public void addPath(String path)
+    {
+        mItems.add(new Item(path, 0));
+        onItemsChanged();
+    }
+
+    /**
+     * 添加文件rawResId
+     *
+     * @param rawResId
+     */
+    public void addRawResId(int rawResId)
+    {
+        mItems.add(new Item(null, rawResId));
+        onItemsChanged();
+    }
+
+    /**
+     * 返回列表数量
+     *
+     * @return
+     */
+    public int size()
+    {
+        return mItems.size();
+    }
+
+    /**
+     * 清空列表，并释放播放器
+     */
+    public void clear()
+    {
+        stop();
+        mItems.clear();
+    }
+
+    /**
+     * 设置是否列表循环
+     *
+     * @param looping
+     */
+    public void setLooping(boolean looping)
+    {
+        if (mIsLooping != looping)
+        {
+            mIsLooping = looping;
+            onItemsChanged();
+        }
+    }
+
+    /**
+     * 设置左右声道音量
+     *
+     * @param leftVolume  [0-1]
+     * @param rightVolume [0-1]
+     */
+    public void setVolume(float leftVolume, float rightVolume)
+    {
+        mLeftVolume = leftVolume;
+        mRightVolume = rightVolume;
+
+        if (mCurrentPlayer != null)
+            mCurrentPlayer.setVolume(leftVolume, rightVolume);
+        if (mNextPlayer != null)
+            mNextPlayer.setVolume(leftVolume, rightVolume);
+    }
+
+    /**
+     * 返回当前播放项的位置，没有的话返回-1
+     *
+     * @return
+     */
+    public int getCurrentIndex()
+    {
+        return mCurrentIndex;
+    }
+
+    /**
+     * 返回当前播放项的状态
+     *
+     * @return
+     */
+    public FMediaPlayer.State getCurrentState()
+    {
+        return mCurrentState;
+    }
+
+    /**
+     * 返回当前项播放的进度位置（毫秒）
+     *
+     * @return
+     */
+    public int getCurrentPosition()
+    {
+        switch (mCurrentState)
+        {
+            case Playing:
+            case Paused:
+            case Completed:
+                return mCurrentPlayer.getCurrentPosition();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 返回当前项的总时长（毫秒）
+     *
+     * @return
+     */
+    public int getDuration()
+    {
+        switch (mCurrentState)
+        {
+            case Prepared:
+            case Playing:
+            case Paused:
+            case Completed:
+                return mCurrentPlayer.getDuration();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 从某一项开始播放
+     *
+     * @param index
+     */
+    public void play(int index)
+    {
+        if (index < 0 || index >= mItems.size())
+            return;
+
+        stop();
+
+        mNextSkipCount = 0;
+        mCurrentIndex = index;
+        mCurrentPlayer = createPlayer(index);
+        if (mCurrentPlayer == null)
+            return;
+
+        setCurrentState(FMediaPlayer.State.Initialized);
+        mCurrentPlayer.prepareAsync();
+        setCurrentState(FMediaPlayer.State.Preparing);
+    }
+
+    /**
+     * 暂停播放
+     */
+    public void pause()
+    {
+        if (mCurrentState == FMediaPlayer.State.Playing)
+        {
+            mCurrentPlayer.pause();
+            setCurrentState(FMediaPlayer.State.Paused);
+        }
+    }
+
+    /**
+     * 恢复播放
+     */
+    public void resume()
+    {
+        if (mCurrentState == FMediaPlayer.State.Paused)
+        {
+            mCurrentPlayer.start();
+            setCurrentState(FMediaPlayer.State.Playing);
+        }
+    }
+
+    /**
+     * 停止播放，并释放播放器
+     */
+    public void stop()
+    {
+        releaseNextPlayer();
+
+        if (mCurrentPlayer != null)
+        {
+            mCurrentPlayer.release();
+            mCurrentPlayer = null;
+            setCurrentState(FMediaPlayer.State.Released);
+        }
+        mCurrentIndex = -1;
+        mCurrentState = FMediaPlayer.State.Idle;
+    }
+
+    /**
+     * 列表发生变化后，重新准备下一项
+     */
+    private void onItemsChanged()
+    {
+        if (mCurrentPlayer == null)
+            return;
+
+        if (mNextIndex != getNextIndex())
+        {
+            releaseNextPlayer();
+            if (mCurrentState == FMediaPlayer.State.Playing || mCurrentState == FMediaPlayer.State.Paused)
+                prepareNext();
+        }
+    }
+
+    private int getNextIndex()
+    {
+        return getNextIndex(mCurrentIndex);
+    }
+
+    private int getNextIndex(int index)
+    {
+        if (index < 0)
+            return -1;
+
+        final int next = index + 1;
+        if (next < mItems.size())
+            return next;
+
+        return mIsLooping && !mItems.isEmpty() ? 0 : -1;
+    }
+
+    private void prepareNext()
+    {
+        prepareNext(mCurrentIndex);
+    }
+
+    /**
+     * 准备某一项之后的那一项，设置数据失败的话跳过，继续准备再后面的一项
+     *
+     * @param index
+     */
+    private void prepareNext(int index)
+    {
+        final boolean startWhenPrepared = mStartNextWhenPrepared;
+        while (true)
+        {
+            index = getNextIndex(index);
+            if (index < 0 || mNextSkipCount >= mItems.size())
+                return;
+
+            final MediaPlayer player = createPlayer(index);
+            if (player == null)
+            {
+                mNextSkipCount++;
+                continue;
+            }
+
+            mNextPlayer = player;
+            mNextIndex = index;
+            mIsNextPrepared = false;
+            mStartNextWhenPrepared = startWhenPrepared;
+            player.prepareAsync();
+            return;
+        }
+    }
+
+    private void releaseNextPlayer()
+    {
+        if (mNextPlayer != null)
+        {
+            if (mCurrentPlayer != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                mCurrentPlayer.setNextMediaPlayer(null);
+
+            mNextPlayer.release();
+            mNextPlayer = null;
+        }
+        mNextIndex = -1;
+        mIsNextPrepared = false;
+        mStartNextWhenPrepared = false;
+    }
+
+    /**
+     * 下一项成为当前项
+     *
+     * @param started 下一项是否已经开始播放
+     */
+    private void moveToNext(boolean started)
+    {
+        final MediaPlayer next = mNextPlayer;
+
+        mCurrentPlayer.release();
+        setCurrentState(FMediaPlayer.State.Released);
+        if (mNextPlayer != next)
+            return;
+
+        // 下一项已经在后台准备完毕，从Idle开始通知它自己的状态变化
+        mCurrentPlayer = next;
+        mCurrentIndex = mNextIndex;
+        mCurrentState = FMediaPlayer.State.Idle;
+
+        mNextPlayer = null;
+        mNextIndex = -1;
+        mIsNextPrepared = false;
+        mStartNextWhenPrepared = false;
+        mNextSkipCount = 0;
+
+        setCurrentState(FMediaPlayer.State.Prepared);
+        if (mCurrentPlayer != next)
+            return;
+
+        if (!started)
+            next.start();
+        setCurrentState(FMediaPlayer.State.Playing);
+        if (mCurrentPlayer != next)
+            return;
+
+        prepareNext();
+    }
+
+    private MediaPlayer createPlayer(int index)
+    {
+        final Item item = mItems.get(index);
+        final MediaPlayer player = new MediaPlayer();
+        try
+        {
+            if (item.path != null)
+            {
+                player.setDataSource(item.path);
+            } else
+            {
+                final AssetFileDescriptor afd = mContext.getResources().openRawResourceFd(item.rawResId);
+                try
+                {
+                    player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+                } finally
+                {
+                    afd.close();
+                }
+            }
+        } catch (Exception e)
+        {
+            player.release();
+            notifyException(e);
+            return null;
+        }
+
+        player.setVolume(mLeftVolume, mRightVolume);
+        player.setOnPreparedListener(mInternalOnPreparedListener);
+        player.setOnCompletionListener(mInternalOnCompletionListener);
+        player.setOnErrorListener(mInternalOnErrorListener);
+        return player;
+    }
+
+    private void setCurrentState(FMediaPlayer.State state)
+    {
+        if (mCurrentState != state)
+        {
+            final FMediaPlayer.State oldState = mCurrentState;
+            mCurrentState = state;
+
+            if (mOnItemStateChangeCallback != null)
+                mOnItemStateChangeCallback.onItemStateChanged(this, mCurrentIndex, oldState, state);
+        }
+    }
+
+    private void notifyException(Exception e)
+    {
+        if (mOnExceptionCallback != null)
+            mOnExceptionCallback.onException(this, e);
+    }
+
+    //----------listener start----------
+
+    private final MediaPlayer.OnPreparedListener mInternalOnPreparedListener = new MediaPlayer.OnPreparedListener()
+    {
+        @Override
+        public void onPrepared(MediaPlayer mp)
+        {
+            if (mp == mCurrentPlayer)
+            {
+                setCurrentState(FMediaPlayer.State.Prepared);
+                mp.start();
+                setCurrentState(FMediaPlayer.State.Playing);
+                prepareNext();
+            } else if (mp == mNextPlayer)
+            {
+                mIsNextPrepared = true;
+                if (mStartNextWhenPrepared)
+                {
+                    moveToNext(false);
+                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                {
+                    mCurrentPlayer.setNextMediaPlayer(mp);
+                }
+            }
+        }
+    };
+
+    private final MediaPlayer.OnCompletionListener mInternalOnCompletionListener = new MediaPlayer.OnCompletionListener()
+    {
+        @Override
+        public void onCompletion(MediaPlayer mp)
+        {
+            if (mp != mCurrentPlayer)
+                return;
+
+            final int index = mCurrentIndex;
+            setCurrentState(FMediaPlayer.State.Completed);
+
+            if (mOnItemCompletionListener != null)
+                mOnItemCompletionListener.onItemCompletion(FMediaPlaylist.this, index);
+
+            if (mp != mCurrentPlayer || mNextPlayer == null)
+                return;
+
+            if (mIsNextPrepared)
+            {
+                // setNextMediaPlayer衔接的情况下，下一项已经自动开始播放
+                final boolean started = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+                moveToNext(started);
+            } else
+            {
+                mStartNextWhenPrepared = true;
+            }
+        }
+    };
+
+    private final MediaPlayer.OnErrorListener mInternalOnErrorListener = new MediaPlayer.OnErrorListener()
+    {
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra)
+        {
+            if (mp == mNextPlayer)
+            {
+                // 跳过出错的下一项，当前项已经播放完毕在等待的话，准备好后面的一项后直接播放
+                final int index = mNextIndex;
+                final boolean startWhenPrepared = mStartNextWhenPrepared;
+                releaseNextPlayer();
+                notifyException(new RuntimeException(mp + ":" + what + "," + extra));
+
+                if (mNextPlayer == null && mCurrentPlayer != null)
+                {
+                    mNextSkipCount++;
+                    mStartNextWhenPrepared = startWhenPrepared;
+                    prepareNext(index);
+                }
+                return true;
+            }
+
+            if (mp == mCurrentPlayer)
+                stop();
+            notifyException(new RuntimeException(mp + ":" + what + "," + extra));
+            return true;
+        }
+    };
+
+    //----------listener end----------
+
+    private static final class Item
+    {
+        final String path;
+        final int rawResId;
+
+        Item(String path, int rawResId)
+        {
+            this.path = path;
+            this.rawResId = rawResId;
+        }
+    }
+
+    public interface OnItemStateChangeCallback
+    {
+        /**
+         * 某一项状态发生变化回调
+         *
+         * @param playlist
+         * @param index    项的位置
+         * @param oldState
+         * @param newState
+         */
+        void onItemStateChanged(FMediaPlaylist playlist, int index, FMediaPlayer.State oldState, FMediaPlayer.State newState);
+    }
+
+    public interface OnItemCompletionListener
+    {
+        /**
+         * 某一项播放完毕回调
+         *
+         * @param playlist
+         * @param index    项的位置
+         */
+        void onItemCompletion(FMediaPlaylist playlist, int index);
+    }
+
+    public interface OnExceptionCallback
+    {
+        /**
+         * 异常回调
+         *
+         * @param playlist
+         * @param e
+         */
+        void onException(FMediaPlaylist playlist, Exception e);
+    }
+}
@@ -0,0 +1,489 @@
+package com.sd.lib.player;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.MediaMetadataRetriever;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.SparseIntArray;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 短音效播放，基于SoundPool，预先加载raw资源，可以同时播放多个，播放的时候没有准备过程也不创建对象
+ * <p>
+ * 同时播放的数量超过上限的时候，优先使用已经播放结束的槽位，都在播放的话停止最早开始播放的那个；
+ * SoundPool不通知播放结束，根据加载的时候在后台线程读取的时长推算
+ */
+public class FSoundEffects
+{
+    private static final int STATUS_LOADING = 1;
+    private static final int STATUS_LOADED = 2;
+
+    /**
+     * 所有实例共享的读取时长的线程，MediaMetadataRetriever可能阻塞，不在主线程读取
+     */
+    private static ExecutorService sDurationExecutor;
+
+    private final Context mContext;
+    private SoundPool mSoundPool;
+
+    /**
+     * rawResId -> sampleId
+     */
+    private final SparseIntArray mSampleIds = new SparseIntArray();
+    /**
+     * sampleId -> 加载状态
+     */
+    private final SparseIntArray mSampleStatus = new SparseIntArray();
+    /**
+     * sampleId -> 时长（毫秒），还没读取或者读取失败的话为0
+     */
+    private final SparseIntArray mSampleDurations = new SparseIntArray();
+
+    /**
+     * 每个槽位最近一次播放的streamId，0-空闲
+     */
+    private final int[] mVoices;
+    private final long[] mVoiceStartTimes;
+    /**
+     * 每个槽位预计播放结束的时间，时长未知或者一直循环的话为Long.MAX_VALUE
+     */
+    private final long[] mVoiceEndTimes;
+    /**
+     * 调用pauseAll()的时间，没有暂停的话为0
+     */
+    private long mPauseTime;
+
+    private long mPlayCount;
+    private long mStolenCount;
+    private long mDroppedCount;
+
+    /**
+     * @param context
+     * @param maxVoices 最多同时播放的数量
+     */
+    public FSoundEffects(Context context, int maxVoices)
+    {
+        if (maxVoices <= 0)
+            throw new IllegalArgumentException("maxVoices must be > 0");
+
+        mContext = context.getApplicationContext();
+        mVoices = new int[maxVoices];
+        mVoiceStartTimes = new long[maxVoices];
+        mVoiceEndTimes = new long[maxVoices];
+        mSoundPool = createSoundPool(maxVoices);
+        mSoundPool.setOnLoadCompleteListener(mOnLoadCompleteListener);
+    }
+
+    private static SoundPool createSoundPool(int maxVoices)
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+        {
+            final AudioAttributes attributes = new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                    .build();
+            return new SoundPool.Builder()
+                    .setMaxStreams(maxVoices)
+                    .setAudioAttributes(attributes)
+                    .build();
+        } else
+        {
+            return new SoundPool(maxVoices, AudioManager.STREAM_MUSIC, 0);
+        }
+    }
+
+    /**
+     * 预先加载raw资源，已经加载过的会忽略
+     *
+     * @param rawResIds
+     */
+    public synchronized void load(int... rawResIds)
+    {
+        checkReleased();
+        for (int rawResId : rawResIds)
+        {
+            if (mSampleIds.indexOfKey(rawResId) >= 0)
+                continue;
+
+            final int sampleId = mSoundPool.load(mContext, rawResId, 1);
+            mSampleIds.put(rawResId, sampleId);
+            mSampleStatus.put(sampleId, STATUS_LOADING);
+            loadDuration(rawResId, sampleId);
+        }
+    }
+
+    /**
+     * 在后台线程读取时长，和SoundPool加载同时进行，读取完毕之前播放的话当作时长未知
+     *
+     * @param rawResId
+     * @param sampleId
+     */
+    private void loadDuration(final int rawResId, final int sampleId)
+    {
+        getDurationExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final int duration = readDuration(mContext, rawResId);
+                synchronized (FSoundEffects.this)
+                {
+                    // 已经卸载或者重新加载
+                    if (mSampleIds.get(rawResId, 0) != sampleId)
+                        return;
+                    mSampleDurations.put(sampleId, duration);
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getDurationExecutor()
+    {
+        if (sDurationExecutor == null)
+        {
+            sDurationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    final Thread thread = new Thread(r, "FSoundEffectsDuration");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sDurationExecutor;
+    }
+
+    /**
+     * 卸载raw资源
+     *
+     * @param rawResId
+     */
+    public synchronized void unload(int rawResId)
+    {
+        checkReleased();
+        final int sampleId = mSampleIds.get(rawResId, 0);
+        if (sampleId == 0)
+            return;
+
+        mSampleIds.delete(rawResId);
+        mSampleStatus.delete(sampleId);
+        mSampleDurations.delete(sampleId);
+        mSoundPool.unload(sampleId);
+    }
+
+    /**
+     * raw资源是否已经加载完毕
+     *
+     * @param rawResId
+     * @return
+     */
+    public synchronized boolean isLoaded(int rawResId)
+    {
+        final int sampleId = mSampleIds.get(rawResId, 0);
+        return sampleId != 0 && mSampleStatus.get(sampleId) == STATUS_LOADED;
+    }
+
+    /**
+     * 播放
+     *
+     * @param rawResId
+     * @return 播放句柄，没有加载完毕的话返回0
+     */
+    public int play(int rawResId)
+    {
+        return play(rawResId, 1.0f, 0, 1.0f);
+    }
+
+    /**
+     * 播放
+     *
+     * @param rawResId
+     * @param volume   [0-1]
+     * @param loop     循环次数，0-不循环，-1-一直循环
+     * @param rate     播放速度[0.5-2]
+     * @return 播放句柄，没有加载完毕的话返回0
+     */
+    public synchronized int play(int rawResId, float volume, int loop, float rate)
+    {
+        checkReleased();
+
+        final int sampleId = mSampleIds.get(rawResId, 0);
+        if (sampleId == 0 || mSampleStatus.get(sampleId) != STATUS_LOADED)
+        {
+            mDroppedCount++;
+            return 0;
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        // 暂停中的stream按暂停的时刻判断是否已经结束
+        final long playTime = mPauseTime > 0 ? mPauseTime : now;
+        final int index = findVoice(playTime);
+
+        final int old = mVoices[index];
+        if (old != 0)
+        {
+            // 推算的时长可能有误差，停止已经结束的stream没有影响
+            mSoundPool.stop(old);
+            if (mVoiceEndTimes[index] > playTime)
+                mStolenCount++;
+        }
+
+        final int streamId = mSoundPool.play(sampleId, volume, volume, 1, loop, rate);
+        mVoices[index] = streamId;
+        if (streamId == 0)
+        {
+            mDroppedCount++;
+            return 0;
+        }
+
+        mVoiceStartTimes[index] = now;
+        mVoiceEndTimes[index] = getEndTime(now, mSampleDurations.get(sampleId), loop, rate);
+        mPlayCount++;
+        return streamId;
+    }
+
+    /**
+     * 优先返回空闲或者已经播放结束的槽位，都在播放的话返回最早开始播放的那个
+     *
+     * @param now
+     * @return
+     */
+    private int findVoice(long now)
+    {
+        int oldest = 0;
+        for (int i = 0; i < mVoices.length; i++)
+        {
+            if (mVoices[i] == 0 || mVoiceEndTimes[i] <= now)
+                return i;
+            if (mVoiceStartTimes[i] < mVoiceStartTimes[oldest])
+                oldest = i;
+        }
+        return oldest;
+    }
+
+    private static long getEndTime(long now, int duration, int loop, float rate)
+    {
+        if (duration <= 0 || loop < 0)
+            return Long.MAX_VALUE;
+
+        // SoundPool把播放速度限制在[0.5-2]
+        rate = Math.max(0.5f, Math.min(2.0f, rate));
+        return now + (long) (duration * (loop + 1L) / rate);
+    }
+
+    /**
+     * 设置音量
+     *
+     * @param voice       播放句柄
+     * @param leftVolume  [0-1]
+     * @param rightVolume [0-1]
+     */
+    public synchronized void setVolume(int voice, float leftVolume, float rightVolume)
+    {
+        if (voice != 0 && mSoundPool != null)
+            mSoundPool.setVolume(voice, leftVolume, rightVolume);
+    }
+
+    /**
+     * 停止播放
+     *
+     * @param voice 播放句柄
+     */
+    public synchronized void stop(int voice)
+    {
+        if (voice == 0 || mSoundPool == null)
+            return;
+
+        mSoundPool.stop(voice);
+        for (int i = 0; i < mVoices.length; i++)
+        {
+            if (mVoices[i] == voice)
+            {
+                mVoices[i] = 0;
+                break;
+            }
+        }
+    }
+
+    /**
+     * 停止所有播放
+     */
+    public synchronized void stopAll()
+    {
+        if (mSoundPool == null)
+            return;
+
+        for (int i = 0; i < mVoices.length; i++)
+        {
+            if (mVoices[i] != 0)
+            {
+                mSoundPool.stop(mVoices[i]);
+                mVoices[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * 暂停所有播放
+     */
+    public synchronized void pauseAll()
+    {
+        if (mSoundPool == null)
+            return;
+
+        mSoundPool.autoPause();
+        if (mPauseTime == 0)
+            mPauseTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 恢复所有暂停的播放
+     */
+    public synchronized void resumeAll()
+    {
+        if (mSoundPool == null)
+            return;
+
+        mSoundPool.autoResume();
+        if (mPauseTime > 0)
+        {
+            // 暂停的时间不算播放时间
+            final long paused = SystemClock.elapsedRealtime() - mPauseTime;
+            for (int i = 0; i < mVoiceEndTimes.length; i++)
+            {
+                if (mVoices[i] != 0 && mVoiceStartTimes[i] < mPauseTime && mVoiceEndTimes[i] != Long.MAX_VALUE)
+                    mVoiceEndTimes[i] += paused;
+            }
+            mPauseTime = 0;
+        }
+    }
+
+    /**
+     * 释放，释放后不能再使用
+     */
+    public synchronized void release()
+    {
+        if (mSoundPool == null)
+            return;
+
+        mSoundPool.release();
+        mSoundPool = null;
+        mSampleIds.clear();
+        mSampleStatus.clear();
+        mSampleDurations.clear();
+        mPauseTime = 0;
+        for (int i = 0; i < mVoices.length; i++)
+        {
+            mVoices[i] = 0;
+        }
+    }
+
+    private void checkReleased()
+    {
+        if (mSoundPool == null)
+            throw new IllegalStateException("sound effects has been released");
+    }
+
+    /**
+     * 返回播放成功的次数
+     *
+     * @return
+     */
+    public synchronized long getPlayCount()
+    {
+        return mPlayCount;
+    }
+
+    /**
+     * 返回所有槽位都在播放，停止最早开始播放的那个的次数
+     *
+     * @return
+     */
+    public synchronized long getStolenCount()
+    {
+        return mStolenCount;
+    }
+
+    /**
+     * 返回因为没有加载完毕或者播放失败而没有播放的次数
+     *
+     * @return
+     */
+    public synchronized long getDroppedCount()
+    {
+        return mDroppedCount;
+    }
+
+    private final SoundPool.OnLoadCompleteListener mOnLoadCompleteListener = new SoundPool.OnLoadCompleteListener()
+    {
+        @Override
+        public void onLoadComplete(SoundPool soundPool, int sampleId, int status)
+        {
+            synchronized (FSoundEffects.this)
+            {
+                if (mSampleStatus.indexOfKey(sampleId) < 0)
+                    return;
+
+                if (status == 0)
+                {
+                    mSampleStatus.put(sampleId, STATUS_LOADED);
+                    return;
+                }
+
+                // 加载失败，移除后可以重新加载
+                mSampleStatus.delete(sampleId);
+                final int index = mSampleIds.indexOfValue(sampleId);
+                if (index >= 0)
+                    mSampleIds.delete(mSampleIds.keyAt(index));
+                mSampleDurations.delete(sampleId);
+            }
+        }
+    };
+
+    /**
+     * 读取raw资源的时长
+     *
+     * @return 时长（毫秒），读取失败的话返回0
+     */
+    private static int readDuration(Context context, int rawResId)
+    {
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        AssetFileDescriptor afd = null;
+        try
+        {
+            afd = context.getResources().openRawResourceFd(rawResId);
+            if (afd == null)
+                return 0;
+
+            retriever.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+            final String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duration == null ? 0 : Integer.parseInt(duration);
+        } catch (Exception e)
+        {
+            return 0;
+        } finally
+        {
+            retriever.release();
+            if (afd != null)
+            {
+                try
+                {
+                    afd.close();
+                } catch (IOException e)
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.sd.lib.player;
+
+/**
+ * 音量渐变曲线，增益在创建的时候预先计算成表，渐变过程中只查表插值
+ * <p>
+ * 淡入用{@link #getGain(float)}，淡出用{@link #getGain(float)}传入1-progress，两者在同一时刻相加（或者平方相加）保持不变
+ */
+public enum FadeCurve
+{
+    /**
+     * 线性，交叉淡入淡出的时候两边幅度相加为1
+     */
+    Linear
+            {
+                @Override
+                float compute(double x)
+                {
+                    return (float) x;
+                }
+            },
+    /**
+     * 等功率，交叉淡入淡出的时候两边功率相加为1，中间没有音量凹陷，默认使用
+     */
+    EqualPower
+            {
+                @Override
+                float compute(double x)
+                {
+                    return (float) Math.sin(x * Math.PI / 2);
+                }
+            },
+    /**
+     * 按分贝线性变化（-60dB到0dB），听感上更均匀，适合单独淡入淡出
+     */
+    Exponential
+            {
+                @Override
+                float compute(double x)
+                {
+                    return x <= 0 ? 0 : (float) Math.pow(10, (x - 1) * 3);
+                }
+            };
+
+    private static final int TABLE_SIZE = 256;
+
+    private final float[] mTable = new float[TABLE_SIZE + 1];
+
+    FadeCurve()
+    {
+        for (int i = 0; i <= TABLE_SIZE; i++)
+        {
+            mTable[i] = compute((double) i / TABLE_SIZE);
+        }
+    }
+
+    abstract float compute(double x);
+
+    /**
+     * 返回增益
+     *
+     * @param progress 渐变进度[0-1]
+     * @return [0-1]
+     */
+    public float getGain(float progress)
+    {
+        if (progress <= 0)
+            return mTable[0];
+        if (progress >= 1)
+            return mTable[TABLE_SIZE];
+
+        final float position = progress * TABLE_SIZE;
+        final int index = (int) position;
+        final float fraction = position - index;
+        return mTable[index] + (mTable[index + 1] - mTable[index]) * fraction;
+    }
+}
@@ -0,0 +1,346 @@
+package com.sd.lib.player;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按固定大小分段保存在磁盘上的LRU缓存，总大小超过限制的时候删除最久未使用的分段或者长度信息文件
+ */
+class HttpSegmentCache
+{
+    static final int SEGMENT_SIZE = 256 * 1024;
+
+    private static final String SUFFIX_SEGMENT = ".seg";
+    private static final String SUFFIX_META = ".meta";
+    private static final String SUFFIX_TEMP = ".tmp";
+
+    private final File mDir;
+    private final long mMaxSize;
+
+    /**
+     * 分段文件名或者长度信息文件名 -> 文件大小，按访问顺序排列
+     */
+    private final LinkedHashMap<String, Long> mSegments = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+
+    public HttpSegmentCache(File dir, long maxSize)
+    {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize must be > 0");
+
+        mDir = dir;
+        mMaxSize = maxSize;
+        loadSegments();
+    }
+
+    private void loadSegments()
+    {
+        mDir.mkdirs();
+
+        final File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File o1, File o2)
+            {
+                final long l1 = o1.lastModified();
+                final long l2 = o2.lastModified();
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+
+        synchronized (this)
+        {
+            for (File item : files)
+            {
+                final String name = item.getName();
+                if (name.endsWith(SUFFIX_SEGMENT) || name.endsWith(SUFFIX_META))
+                {
+                    mSegments.put(name, item.length());
+                    mSize += item.length();
+                } else if (name.endsWith(SUFFIX_TEMP))
+                {
+                    item.delete();
+                }
+            }
+            trimToSize();
+        }
+    }
+
+    /**
+     * 返回url对应的缓存key
+     *
+     * @param url
+     * @return
+     */
+    public static String getKey(String url)
+    {
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final byte[] bytes = digest.digest(url.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte item : bytes)
+            {
+                final int value = item & 0xFF;
+                if (value < 0x10)
+                    sb.append('0');
+                sb.append(Integer.toHexString(value));
+            }
+            return sb.toString();
+        } catch (Exception e)
+        {
+            return String.valueOf(url.hashCode());
+        }
+    }
+
+    /**
+     * 读取保存的总长度和类型
+     *
+     * @param key
+     * @return [总长度, 类型]，没有的话返回null
+     */
+    public String[] getMeta(String key)
+    {
+        final String name = key + SUFFIX_META;
+        synchronized (this)
+        {
+            if (mSegments.get(name) == null)
+                return null;
+        }
+
+        final File file = new File(mDir, name);
+        if (!file.exists())
+        {
+            remove(name);
+            return null;
+        }
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new FileReader(file));
+            final String length = reader.readLine();
+            final String type = reader.readLine();
+            if (length == null)
+                return null;
+            return new String[]{length, type};
+        } catch (IOException e)
+        {
+            return null;
+        } finally
+        {
+            closeQuietly(reader);
+        }
+    }
+
+    public void putMeta(String key, long length, String type)
+    {
+        final String name = key + SUFFIX_META;
+        final File file = new File(mDir, name);
+
+        FileWriter writer = null;
+        try
+        {
+            writer = new FileWriter(file);
+            writer.write(length + "\n" + (type == null ? "" : type) + "\n");
+        } catch (IOException e)
+        {
+            // 保存失败的话下次重新请求
+            file.delete();
+            remove(name);
+            return;
+        } finally
+        {
+            closeQuietly(writer);
+        }
+
+        synchronized (this)
+        {
+            final Long old = mSegments.put(name, file.length());
+            if (old != null)
+                mSize -= old;
+            mSize += file.length();
+            trimToSize();
+        }
+    }
+
+    private synchronized void remove(String name)
+    {
+        final Long size = mSegments.remove(name);
+        if (size != null)
+            mSize -= size;
+    }
+
+    /**
+     * 返回分段文件，不存在的话返回null
+     *
+     * @param key
+     * @param index
+     * @return
+     */
+    public File getSegment(String key, int index)
+    {
+        final String name = getSegmentName(key, index);
+        synchronized (this)
+        {
+            if (mSegments.get(name) == null)
+                return null;
+        }
+
+        final File file = new File(mDir, name);
+        if (!file.exists())
+        {
+            remove(name);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * 保存分段
+     *
+     * @param key
+     * @param index
+     * @param data
+     * @param length
+     */
+    public void putSegment(String key, int index, byte[] data, int length)
+    {
+        if (length <= 0 || length > mMaxSize)
+            return;
+
+        final String name = getSegmentName(key, index);
+        final File temp = new File(mDir, name + "." + Thread.currentThread().getId() + SUFFIX_TEMP);
+        final File file = new File(mDir, name);
+
+        FileOutputStream outputStream = null;
+        try
+        {
+            outputStream = new FileOutputStream(temp);
+            outputStream.write(data, 0, length);
+        } catch (IOException e)
+        {
+            temp.delete();
+            return;
+        } finally
+        {
+            closeQuietly(outputStream);
+        }
+
+        synchronized (this)
+        {
+            if (!temp.renameTo(file))
+            {
+                temp.delete();
+                return;
+            }
+
+            final Long old = mSegments.put(name, (long) length);
+            if (old != null)
+                mSize -= old;
+            mSize += length;
+            trimToSize();
+        }
+    }
+
+    /**
+     * 从分段文件读取数据
+     *
+     * @return 读取的字节数，分段在{@link #getSegment(String, int)}之后被删除的话返回-1
+     */
+    public static int read(File file, long offset, byte[] buffer, int length) throws IOException
+    {
+        final RandomAccessFile raf;
+        try
+        {
+            raf = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e)
+        {
+            return -1;
+        }
+
+        try
+        {
+            raf.seek(offset);
+            return raf.read(buffer, 0, length);
+        } finally
+        {
+            raf.close();
+        }
+    }
+
+    public synchronized long getSize()
+    {
+        return mSize;
+    }
+
+    public long getMaxSize()
+    {
+        return mMaxSize;
+    }
+
+    /**
+     * 删除所有缓存
+     */
+    public synchronized void clear()
+    {
+        final File[] files = mDir.listFiles();
+        if (files != null)
+        {
+            for (File item : files)
+            {
+                item.delete();
+            }
+        }
+        mSegments.clear();
+        mSize = 0;
+    }
+
+    private void trimToSize()
+    {
+        final Iterator<Map.Entry<String, Long>> it = mSegments.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext())
+        {
+            final Map.Entry<String, Long> entry = it.next();
+            new File(mDir, entry.getKey()).delete();
+            mSize -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    private static String getSegmentName(String key, int index)
+    {
+        return key + "_" + index + SUFFIX_SEGMENT;
+    }
+
+    static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            } catch (IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+}
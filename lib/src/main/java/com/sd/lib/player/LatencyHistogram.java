@@ -0,0 +1,173 @@
+package com.sd.lib.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定大小的耗时直方图，记录的时候不创建对象，可以在任意线程读取
+ * <p>
+ * 按微秒分桶，每个2的幂区间再分为4个子区间，相对误差不超过25%
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = 64 * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时（纳秒），小于0的值会被忽略
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+            return;
+
+        mCounts.incrementAndGet(getBucketIndex(nanos / 1000));
+        mTotalCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = mMaxNanos.get()))
+        {
+            if (mMaxNanos.compareAndSet(max, nanos))
+                break;
+        }
+    }
+
+    /**
+     * 返回记录的次数
+     *
+     * @return
+     */
+    public long getCount()
+    {
+        return mTotalCount.get();
+    }
+
+    /**
+     * 返回平均耗时（纳秒）
+     *
+     * @return
+     */
+    public long getMean()
+    {
+        final long count = mTotalCount.get();
+        return count <= 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * 返回最大耗时（纳秒）
+     *
+     * @return
+     */
+    public long getMax()
+    {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * 返回百分位耗时（纳秒），返回的是所在桶的上限
+     *
+     * @param percentile [0-100]
+     * @return
+     */
+    public long getPercentile(double percentile)
+    {
+        final long count = mTotalCount.get();
+        if (count <= 0)
+            return 0;
+
+        final long target = Math.max(1, (long) Math.ceil(count * percentile / 100d));
+        long sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            sum += mCounts.get(i);
+            if (sum >= target)
+                return Math.min(getBucketUpperBound(i) * 1000, mMaxNanos.get());
+        }
+        return mMaxNanos.get();
+    }
+
+    /**
+     * 把other的数据累加到当前直方图，用于汇总多个播放器
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            final long value = other.mCounts.get(i);
+            if (value != 0)
+                mCounts.addAndGet(i, value);
+        }
+        mTotalCount.addAndGet(other.mTotalCount.get());
+        mTotalNanos.addAndGet(other.mTotalNanos.get());
+
+        final long otherMax = other.mMaxNanos.get();
+        long max;
+        while (otherMax > (max = mMaxNanos.get()))
+        {
+            if (mMaxNanos.compareAndSet(max, otherMax))
+                break;
+        }
+    }
+
+    /**
+     * 返回当前数据的副本
+     *
+     * @return
+     */
+    public LatencyHistogram copy()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add(this);
+        return histogram;
+    }
+
+    /**
+     * 清空数据
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    private static int getBucketIndex(long micros)
+    {
+        if (micros < SUB_BUCKET_COUNT)
+            return (int) micros;
+
+        final int power = 63 - Long.numberOfLeadingZeros(micros);
+        final int sub = (int) (micros >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return Math.min(BUCKET_COUNT - 1, (power - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + sub);
+    }
+
+    /**
+     * 返回桶的上限（微秒）
+     */
+    private static long getBucketUpperBound(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        final int power = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        final int sub = index % SUB_BUCKET_COUNT;
+        if (power >= 62)
+            return Long.MAX_VALUE / 1000;
+        return ((long) (SUB_BUCKET_COUNT + sub + 1) << (power - SUB_BUCKET_BITS)) - 1;
+    }
+}
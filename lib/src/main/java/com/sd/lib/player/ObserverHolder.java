@@ -1,41 +1,83 @@
 package com.sd.lib.player;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
+/**
+ * 观察者列表，写入时复制数组，遍历的时候不创建对象，并且保持添加顺序
+ */
 class ObserverHolder<T>
 {
-    private final Map<T, String> mHolder = new ConcurrentHashMap<>();
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] mObservers = EMPTY;
 
-    public void add(T observer)
+    public synchronized void add(T observer)
     {
         if (observer == null)
             return;
 
-        mHolder.put(observer, "");
+        final Object[] observers = mObservers;
+        if (indexOf(observers, observer) >= 0)
+            return;
+
+        final Object[] newObservers = new Object[observers.length + 1];
+        System.arraycopy(observers, 0, newObservers, 0, observers.length);
+        newObservers[observers.length] = observer;
+        mObservers = newObservers;
     }
 
-    public void remove(T observer)
+    public synchronized void remove(T observer)
     {
         if (observer == null)
             return;
 
-        mHolder.remove(observer);
+        final Object[] observers = mObservers;
+        final int index = indexOf(observers, observer);
+        if (index < 0)
+            return;
+
+        if (observers.length == 1)
+        {
+            mObservers = EMPTY;
+            return;
+        }
+
+        final Object[] newObservers = new Object[observers.length - 1];
+        System.arraycopy(observers, 0, newObservers, 0, index);
+        System.arraycopy(observers, index + 1, newObservers, index, observers.length - index - 1);
+        mObservers = newObservers;
     }
 
     public boolean isEmpty()
     {
-        return mHolder.isEmpty();
+        return mObservers.length == 0;
+    }
+
+    public int size()
+    {
+        return mObservers.length;
     }
 
     public void foreach(ForeachCallback<T> callback)
     {
-        for (T observer : mHolder.keySet())
+        final Object[] observers = mObservers;
+        for (Object item : observers)
         {
+            // 数组里只有add(T)添加的对象
+            @SuppressWarnings("unchecked")
+            final T observer = (T) item;
             callback.onNext(observer);
         }
     }
 
+    private static int indexOf(Object[] observers, Object observer)
+    {
+        for (int i = 0; i < observers.length; i++)
+        {
+            if (observers[i].equals(observer))
+                return i;
+        }
+        return -1;
+    }
+
     public interface ForeachCallback<T>
     {
         void onNext(T observer);
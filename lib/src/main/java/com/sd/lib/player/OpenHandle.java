@@ -0,0 +1,167 @@
+package com.sd.lib.player;
+
+import android.content.Context;
+
+/**
+ * {@link FMediaPlayer#open(String, int, boolean, float, boolean)}返回的句柄，可以在任意线程查询结果或者取消
+ */
+public final class OpenHandle
+{
+    /**
+     * 正在设置数据、准备或者seek
+     */
+    public static final int STATUS_PENDING = 0;
+    /**
+     * 已经准备完毕并且seek到开始位置，如果要求自动播放的话已经开始播放
+     */
+    public static final int STATUS_SUCCESS = 1;
+    /**
+     * 设置数据、准备或者seek出错
+     */
+    public static final int STATUS_FAILED = 2;
+    /**
+     * 被取消，或者被后面设置的数据、reset()、release()打断
+     */
+    public static final int STATUS_CANCELLED = 3;
+
+    private final FMediaPlayer mPlayer;
+
+    final String path;
+    final int rawResId;
+    final Context context;
+    final int startPosition;
+    final boolean autoPlay;
+
+    private final long mStartNanos = PlaybackClock.nowNanos();
+    private int mStatus = STATUS_PENDING;
+    private long mElapsedNanos;
+    private Callback mCallback;
+
+    OpenHandle(FMediaPlayer player, String path, int rawResId, Context context, int startPosition, boolean autoPlay)
+    {
+        mPlayer = player;
+        this.path = path;
+        this.rawResId = rawResId;
+        this.context = context;
+        this.startPosition = startPosition < 0 ? 0 : startPosition;
+        this.autoPlay = autoPlay;
+    }
+
+    /**
+     * 返回状态
+     *
+     * @return {@link #STATUS_PENDING}，{@link #STATUS_SUCCESS}，{@link #STATUS_FAILED}，{@link #STATUS_CANCELLED}
+     */
+    public synchronized int getStatus()
+    {
+        return mStatus;
+    }
+
+    /**
+     * 是否已经结束
+     *
+     * @return
+     */
+    public synchronized boolean isDone()
+    {
+        return mStatus != STATUS_PENDING;
+    }
+
+    /**
+     * 返回从调用open()到结束的耗时（毫秒），还没结束的话返回到现在的耗时
+     *
+     * @return
+     */
+    public synchronized long getElapsed()
+    {
+        final long nanos = mStatus == STATUS_PENDING ? PlaybackClock.nowNanos() - mStartNanos : mElapsedNanos;
+        return nanos / 1000000L;
+    }
+
+    /**
+     * 设置结束回调，在播放器线程回调，如果已经结束的话在当前线程立即回调
+     *
+     * @param callback
+     */
+    public void setCallback(Callback callback)
+    {
+        final boolean done;
+        synchronized (this)
+        {
+            mCallback = callback;
+            done = mStatus != STATUS_PENDING;
+        }
+
+        if (done && callback != null)
+            callback.onComplete(this);
+    }
+
+    /**
+     * 等待结束，不能在播放器线程调用
+     *
+     * @param timeout 最多等待的时间（毫秒）
+     * @return true-已经结束
+     * @throws InterruptedException
+     */
+    public synchronized boolean await(long timeout) throws InterruptedException
+    {
+        final long deadline = PlaybackClock.nowNanos() + timeout * 1000000L;
+        while (mStatus == STATUS_PENDING)
+        {
+            final long wait = (deadline - PlaybackClock.nowNanos()) / 1000000L;
+            if (wait <= 0)
+                return false;
+            wait(wait);
+        }
+        return true;
+    }
+
+    /**
+     * 取消，已经结束的话不处理
+     *
+     * @return true-取消成功
+     */
+    public boolean cancel()
+    {
+        if (!finish(STATUS_CANCELLED))
+            return false;
+
+        mPlayer.cancelOpen(this);
+        return true;
+    }
+
+    /**
+     * 结束
+     *
+     * @param status
+     * @return false-已经结束过了
+     */
+    boolean finish(int status)
+    {
+        final Callback callback;
+        synchronized (this)
+        {
+            if (mStatus != STATUS_PENDING)
+                return false;
+
+            mStatus = status;
+            mElapsedNanos = PlaybackClock.nowNanos() - mStartNanos;
+            callback = mCallback;
+            notifyAll();
+        }
+
+        if (callback != null)
+            callback.onComplete(this);
+        return true;
+    }
+
+    public interface Callback
+    {
+        /**
+         * 结束回调
+         *
+         * @param handle
+         */
+        void onComplete(OpenHandle handle);
+    }
+}
@@ -0,0 +1,203 @@
+package com.sd.lib.player;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 播放时钟，只在状态变化、seek完成、缓冲结束或者超过重新同步间隔的时候读取真实的播放位置，其他时候根据系统时钟和播放速度推算
+ * <p>
+ * 读取位置不加锁也不创建对象，可以在任意线程高频调用
+ */
+public class PlaybackClock
+{
+    private final PositionSource mSource;
+
+    private volatile Anchor mAnchor = new Anchor(0, 0, 1.0f, false);
+    private volatile long mResyncIntervalNanos = 1000 * 1000000L;
+    private final AtomicBoolean mIsResyncing = new AtomicBoolean();
+
+    private final LatencyHistogram mDrift = new LatencyHistogram();
+    private volatile long mLastDrift;
+    private volatile long mSyncCount;
+
+    PlaybackClock(PositionSource source)
+    {
+        mSource = source;
+    }
+
+    static long nowNanos()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            return SystemClock.elapsedRealtimeNanos();
+        else
+            return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
+    /**
+     * 设置播放状态下重新读取真实位置的间隔，默认1000毫秒
+     *
+     * @param interval 间隔（毫秒）
+     */
+    public void setResyncInterval(long interval)
+    {
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval must be > 0");
+        mResyncIntervalNanos = interval * 1000000L;
+    }
+
+    /**
+     * 返回当前的播放位置（毫秒）
+     *
+     * @return
+     */
+    public long getPosition()
+    {
+        Anchor anchor = mAnchor;
+        if (!anchor.running)
+            return anchor.position;
+
+        final long now = nowNanos();
+        if (now - anchor.nanos >= mResyncIntervalNanos && resync())
+            anchor = mAnchor;
+
+        return anchor.getPosition(now);
+    }
+
+    /**
+     * 时钟是否在走
+     *
+     * @return
+     */
+    public boolean isRunning()
+    {
+        return mAnchor.running;
+    }
+
+    /**
+     * 返回最近一次同步时推算位置与真实位置的差值（毫秒），推算位置超前为正数
+     *
+     * @return
+     */
+    public long getLastDrift()
+    {
+        return mLastDrift;
+    }
+
+    /**
+     * 返回推算位置与真实位置差值的绝对值分布
+     *
+     * @return
+     */
+    public LatencyHistogram getDriftHistogram()
+    {
+        return mDrift;
+    }
+
+    /**
+     * 返回播放中定期读取真实位置校准的次数
+     *
+     * @return
+     */
+    public long getSyncCount()
+    {
+        return mSyncCount;
+    }
+
+    /**
+     * 从播放器读取真实位置并同步
+     *
+     * @return true-同步成功
+     */
+    boolean resync()
+    {
+        if (!mIsResyncing.compareAndSet(false, true))
+            return false;
+
+        try
+        {
+            final int position = mSource.readPosition();
+            if (position < 0)
+                return false;
+
+            sync(position, mSource.isRunning(), mSource.getRate());
+            return true;
+        } finally
+        {
+            mIsResyncing.set(false);
+        }
+    }
+
+    /**
+     * 用真实位置同步时钟
+     *
+     * @param position 真实位置（毫秒）
+     * @param running  时钟是否在走
+     * @param rate     播放速度
+     */
+    synchronized void sync(long position, boolean running, float rate)
+    {
+        final long now = nowNanos();
+
+        final Anchor old = mAnchor;
+        if (old.running)
+        {
+            final long drift = old.getPosition(now) - position;
+            mLastDrift = drift;
+            mDrift.record(Math.abs(drift) * 1000000L);
+        }
+
+        mAnchor = new Anchor(position, now, rate, running);
+        mSyncCount++;
+    }
+
+    /**
+     * 重新设置时钟，不记录差值；seek和状态变化的时候推算位置本来就不连续，不能算作误差
+     *
+     * @param position 位置（毫秒）
+     * @param running  时钟是否在走
+     * @param rate     播放速度
+     */
+    synchronized void reset(long position, boolean running, float rate)
+    {
+        mAnchor = new Anchor(position, nowNanos(), rate, running);
+    }
+
+    private static final class Anchor
+    {
+        final long position;
+        final long nanos;
+        final float rate;
+        final boolean running;
+
+        Anchor(long position, long nanos, float rate, boolean running)
+        {
+            this.position = position;
+            this.nanos = nanos;
+            this.rate = rate;
+            this.running = running;
+        }
+
+        long getPosition(long now)
+        {
+            if (!running)
+                return position;
+            return position + (long) ((now - nanos) * rate / 1000000d);
+        }
+    }
+
+    interface PositionSource
+    {
+        /**
+         * 读取真实的播放位置
+         *
+         * @return 不能读取的话返回-1
+         */
+        int readPosition();
+
+        boolean isRunning();
+
+        float getRate();
+    }
+}
@@ -0,0 +1,175 @@
+package com.sd.lib.player;
+
+/**
+ * 播放体验统计，记录每次设置数据以来和累计的卡顿次数、卡顿时长和卡顿比例
+ * <p>
+ * 播放状态下开始缓冲，或者进入播放状态的时候已经在缓冲，都算一次卡顿，和{@link PlayerMetrics#getStallCount()}一致
+ * <p>
+ * 只在播放器线程更新，读取不加锁，可以在任意线程调用
+ */
+public class PlaybackQoe
+{
+    private static final int MODE_IDLE = 0;
+    private static final int MODE_PLAYING = 1;
+    private static final int MODE_REBUFFERING = 2;
+
+    private volatile int mMode = MODE_IDLE;
+    private volatile long mModeStartNanos;
+
+    private volatile long mSessionCount;
+    private volatile long mRebufferCount;
+    private volatile long mRebufferNanos;
+    private volatile long mPlayingNanos;
+
+    private volatile long mTotalRebufferCount;
+    private volatile long mTotalRebufferNanos;
+    private volatile long mTotalPlayingNanos;
+
+    PlaybackQoe()
+    {
+    }
+
+    /**
+     * 设置了新的数据，本次的统计清零
+     */
+    synchronized void newSession()
+    {
+        update(false, false);
+        mSessionCount++;
+        mRebufferCount = 0;
+        mRebufferNanos = 0;
+        mPlayingNanos = 0;
+    }
+
+    /**
+     * 播放状态或者缓冲状态变化
+     *
+     * @param playing   是否播放状态
+     * @param buffering 是否在缓冲
+     * @return true-开始了一次卡顿
+     */
+    synchronized boolean update(boolean playing, boolean buffering)
+    {
+        final int mode = playing ? (buffering ? MODE_REBUFFERING : MODE_PLAYING) : MODE_IDLE;
+        final int oldMode = mMode;
+        if (mode == oldMode)
+            return false;
+
+        final long now = PlaybackClock.nowNanos();
+        final long elapsed = now - mModeStartNanos;
+        if (oldMode == MODE_PLAYING)
+        {
+            mPlayingNanos += elapsed;
+            mTotalPlayingNanos += elapsed;
+        } else if (oldMode == MODE_REBUFFERING)
+        {
+            mRebufferNanos += elapsed;
+            mTotalRebufferNanos += elapsed;
+        }
+
+        final boolean rebuffer = mode == MODE_REBUFFERING;
+        if (rebuffer)
+        {
+            mRebufferCount++;
+            mTotalRebufferCount++;
+        }
+
+        mModeStartNanos = now;
+        mMode = mode;
+        return rebuffer;
+    }
+
+    /**
+     * 当前是否在卡顿
+     *
+     * @return
+     */
+    public boolean isRebuffering()
+    {
+        return mMode == MODE_REBUFFERING;
+    }
+
+    /**
+     * 返回设置数据的次数
+     *
+     * @return
+     */
+    public long getSessionCount()
+    {
+        return mSessionCount;
+    }
+
+    /**
+     * 返回本次播放中的卡顿次数
+     *
+     * @return
+     */
+    public long getRebufferCount()
+    {
+        return mRebufferCount;
+    }
+
+    /**
+     * 返回本次播放的卡顿时长（毫秒），包括正在进行中的卡顿
+     *
+     * @return
+     */
+    public long getRebufferDuration()
+    {
+        return (mRebufferNanos + getPending(MODE_REBUFFERING)) / 1000000L;
+    }
+
+    /**
+     * 返回本次播放的卡顿比例，卡顿时长 / (卡顿时长 + 流畅播放时长)
+     *
+     * @return [0-1]
+     */
+    public float getRebufferRatio()
+    {
+        return ratio(mRebufferNanos + getPending(MODE_REBUFFERING), mPlayingNanos + getPending(MODE_PLAYING));
+    }
+
+    /**
+     * 返回累计的卡顿次数
+     *
+     * @return
+     */
+    public long getTotalRebufferCount()
+    {
+        return mTotalRebufferCount;
+    }
+
+    /**
+     * 返回累计的卡顿时长（毫秒）
+     *
+     * @return
+     */
+    public long getTotalRebufferDuration()
+    {
+        return (mTotalRebufferNanos + getPending(MODE_REBUFFERING)) / 1000000L;
+    }
+
+    /**
+     * 返回累计的卡顿比例
+     *
+     * @return [0-1]
+     */
+    public float getTotalRebufferRatio()
+    {
+        return ratio(mTotalRebufferNanos + getPending(MODE_REBUFFERING), mTotalPlayingNanos + getPending(MODE_PLAYING));
+    }
+
+    /**
+     * 返回当前处于某个模式的话，这段还没累加的时长
+     */
+    private long getPending(int mode)
+    {
+        return mMode == mode ? PlaybackClock.nowNanos() - mModeStartNanos : 0;
+    }
+
+    private static float ratio(long rebuffer, long playing)
+    {
+        final long total = rebuffer + playing;
+        return total <= 0 ? 0 : (float) rebuffer / total;
+    }
+}
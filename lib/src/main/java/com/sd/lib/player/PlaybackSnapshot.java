@@ -0,0 +1,115 @@
+package com.sd.lib.player;
+
+/**
+ * 播放器状态快照，可以重复使用，通过{@link FMediaPlayer#getSnapshot(PlaybackSnapshot)}一次性填充
+ */
+public class PlaybackSnapshot
+{
+    private FMediaPlayer.State mState = FMediaPlayer.State.Idle;
+    private int mDuration;
+    private int mPosition;
+    private int mVideoWidth;
+    private int mVideoHeight;
+    private boolean mIsLooping;
+    private boolean mIsBuffering;
+    private int mBufferedPercent;
+
+    private long mVersion;
+
+    /**
+     * 填充数据，有任何数据发生变化的话版本号加1
+     *
+     * @return true-数据发生了变化
+     */
+    boolean update(FMediaPlayer.State state, int duration, int position, int videoWidth, int videoHeight, boolean looping,
+                   boolean buffering, int bufferedPercent)
+    {
+        if (mState == state
+                && mDuration == duration
+                && mPosition == position
+                && mVideoWidth == videoWidth
+                && mVideoHeight == videoHeight
+                && mIsLooping == looping
+                && mIsBuffering == buffering
+                && mBufferedPercent == bufferedPercent)
+        {
+            return false;
+        }
+
+        mState = state;
+        mDuration = duration;
+        mPosition = position;
+        mVideoWidth = videoWidth;
+        mVideoHeight = videoHeight;
+        mIsLooping = looping;
+        mIsBuffering = buffering;
+        mBufferedPercent = bufferedPercent;
+        mVersion++;
+        return true;
+    }
+
+    public FMediaPlayer.State getState()
+    {
+        return mState;
+    }
+
+    /**
+     * 总时长（毫秒）
+     *
+     * @return
+     */
+    public int getDuration()
+    {
+        return mDuration;
+    }
+
+    /**
+     * 播放位置（毫秒）
+     *
+     * @return
+     */
+    public int getPosition()
+    {
+        return mPosition;
+    }
+
+    public int getVideoWidth()
+    {
+        return mVideoWidth;
+    }
+
+    public int getVideoHeight()
+    {
+        return mVideoHeight;
+    }
+
+    public boolean isLooping()
+    {
+        return mIsLooping;
+    }
+
+    public boolean isBuffering()
+    {
+        return mIsBuffering;
+    }
+
+    /**
+     * 网络数据已经缓冲的百分比
+     *
+     * @return [0-100]
+     */
+    public int getBufferedPercent()
+    {
+        return mBufferedPercent;
+    }
+
+    /**
+     * 版本号，数据发生变化的时候加1，版本号没变的话可以不用刷新界面
+     *
+     * @return
+     */
+    public long getVersion()
+    {
+        return mVersion;
+    }
+}
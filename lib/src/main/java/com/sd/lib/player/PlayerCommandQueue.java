@@ -0,0 +1,240 @@
+package com.sd.lib.player;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 播放器命令队列，所有命令按顺序在指定Looper线程执行，队尾的重复命令会被合并
+ */
+class PlayerCommandQueue
+{
+    static final int CMD_INIT = 1;
+    static final int CMD_SET_DATA_PATH = 2;
+    static final int CMD_SET_DATA_RAW = 3;
+    static final int CMD_START = 4;
+    static final int CMD_PAUSE = 5;
+    static final int CMD_STOP = 6;
+    static final int CMD_SEEK = 7;
+    static final int CMD_TOGGLE_PAUSE = 8;
+    static final int CMD_TOGGLE_STOP = 9;
+    static final int CMD_RESET = 10;
+    static final int CMD_RELEASE = 11;
+    static final int CMD_APPLY_VOLUME = 12;
+    static final int CMD_APPLY_LOOPING = 13;
+    static final int CMD_APPLY_DISPLAY = 14;
+    static final int CMD_WATCHDOG = 15;
+    static final int CMD_OPEN = 16;
+    static final int CMD_CANCEL_OPEN = 17;
+    static final int CMD_APPLY_PLAY_RANGE = 18;
+    static final int CMD_FADE_TO = 19;
+    static final int CMD_FADE_END = 20;
+
+    /**
+     * 没有参数的命令不可变，共用同一个对象，渐变每一步发送的音量命令不创建对象
+     */
+    private static final Command[] SIMPLE_COMMANDS = new Command[CMD_FADE_END + 1];
+
+    static
+    {
+        for (int i = 0; i < SIMPLE_COMMANDS.length; i++)
+        {
+            SIMPLE_COMMANDS[i] = new Command(i, 0, null);
+        }
+    }
+
+    private final Handler mHandler;
+    private final CommandExecutor mExecutor;
+
+    private final ArrayDeque<Command> mQueue = new ArrayDeque<>();
+    private boolean mScheduled;
+
+    public PlayerCommandQueue(Looper looper, CommandExecutor executor)
+    {
+        if (looper == null)
+            throw new IllegalArgumentException("looper is null");
+        if (executor == null)
+            throw new IllegalArgumentException("executor is null");
+
+        mHandler = new Handler(looper);
+        mExecutor = executor;
+    }
+
+    public void post(int cmd)
+    {
+        post(cmd, 0, null);
+    }
+
+    /**
+     * 发送命令
+     *
+     * @param cmd
+     * @param arg
+     * @param obj
+     */
+    public void post(int cmd, int arg, Object obj)
+    {
+        synchronized (mQueue)
+        {
+            switch (cmd)
+            {
+                case CMD_RESET:
+                case CMD_RELEASE:
+                    removePlaybackCommands();
+                    break;
+                default:
+                    final Command last = mQueue.peekLast();
+                    if (last != null && isRedundant(last.cmd, cmd) && canCollapse(last.cmd))
+                        mQueue.pollLast();
+                    break;
+            }
+
+            if (arg == 0 && obj == null && cmd < SIMPLE_COMMANDS.length)
+                mQueue.addLast(SIMPLE_COMMANDS[cmd]);
+            else
+                mQueue.addLast(new Command(cmd, arg, obj));
+
+            if (!mScheduled)
+            {
+                mScheduled = true;
+                mHandler.post(mDrainRunnable);
+            }
+        }
+    }
+
+    /**
+     * 队尾命令last会被新命令cmd覆盖的情况
+     */
+    private static boolean isRedundant(int last, int cmd)
+    {
+        switch (cmd)
+        {
+            case CMD_START:
+            case CMD_PAUSE:
+                return last == CMD_START || last == CMD_PAUSE;
+            case CMD_SET_DATA_PATH:
+            case CMD_SET_DATA_RAW:
+                return last == CMD_SET_DATA_PATH || last == CMD_SET_DATA_RAW;
+            case CMD_SEEK:
+            case CMD_FADE_TO:
+            case CMD_APPLY_VOLUME:
+            case CMD_APPLY_LOOPING:
+            case CMD_APPLY_DISPLAY:
+            case CMD_APPLY_PLAY_RANGE:
+                return last == cmd;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * start和pause只有在前面等待的都是不改变状态的命令时才能合并，比如设置数据之后的start会触发准备，不能被之后的pause覆盖
+     *
+     * @param last 队尾的命令
+     */
+    private boolean canCollapse(int last)
+    {
+        if (last != CMD_START && last != CMD_PAUSE)
+            return true;
+
+        final Iterator<Command> it = mQueue.descendingIterator();
+        it.next();
+        while (it.hasNext())
+        {
+            switch (it.next().cmd)
+            {
+                case CMD_SEEK:
+                case CMD_FADE_TO:
+                case CMD_APPLY_VOLUME:
+                case CMD_APPLY_LOOPING:
+                case CMD_APPLY_DISPLAY:
+                case CMD_APPLY_PLAY_RANGE:
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 移除等待中的播放相关命令，reset和release之前的这些命令没有执行的意义
+     * <p>
+     * open命令不移除，执行后会被reset或者release取消，保证它的句柄能够结束
+     */
+    private void removePlaybackCommands()
+    {
+        final Iterator<Command> it = mQueue.iterator();
+        while (it.hasNext())
+        {
+            switch (it.next().cmd)
+            {
+                case CMD_SET_DATA_PATH:
+                case CMD_SET_DATA_RAW:
+                case CMD_START:
+                case CMD_PAUSE:
+                case CMD_STOP:
+                case CMD_SEEK:
+                case CMD_TOGGLE_PAUSE:
+                case CMD_TOGGLE_STOP:
+                case CMD_WATCHDOG:
+                case CMD_FADE_TO:
+                case CMD_FADE_END:
+                    it.remove();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private final Runnable mDrainRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                final Command command;
+                synchronized (mQueue)
+                {
+                    command = mQueue.pollFirst();
+                    if (command == null)
+                    {
+                        mScheduled = false;
+                        return;
+                    }
+                }
+                mExecutor.execute(command.cmd, command.arg, command.obj);
+            }
+        }
+    };
+
+    private static final class Command
+    {
+        final int cmd;
+        final int arg;
+        final Object obj;
+
+        Command(int cmd, int arg, Object obj)
+        {
+            this.cmd = cmd;
+            this.arg = arg;
+            this.obj = obj;
+        }
+    }
+
+    public interface CommandExecutor
+    {
+        /**
+         * 在命令线程执行命令
+         *
+         * @param cmd
+         * @param arg
+         * @param obj
+         */
+        void execute(int cmd, int arg, Object obj);
+    }
+}
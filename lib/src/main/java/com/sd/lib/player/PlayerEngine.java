@@ -0,0 +1,19 @@
+package com.sd.lib.player;
+
+/**
+ * 播放引擎，{@link PlayerStateMachine}通过该接口调用真正的播放器
+ */
+interface PlayerEngine
+{
+    void prepareAsync();
+
+    void start();
+
+    void pause();
+
+    void stop();
+
+    int getDuration();
+
+    int getCurrentPosition();
+}
@@ -0,0 +1,404 @@
+package com.sd.lib.player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 播放器耗时统计，记录状态变化的时间点，统计准备耗时、首帧耗时、seek耗时、各个状态的停留时长、卡顿和超时以及播放范围结尾的误差
+ * <p>
+ * 通过{@link FMediaPlayer#setMetricsEnabled(boolean)}开启
+ */
+public class PlayerMetrics
+{
+    private static final ObserverHolder<PlayerMetrics> sLiveMetrics = new ObserverHolder<>();
+
+    private final LatencyHistogram mPrepareLatency = new LatencyHistogram();
+    private final LatencyHistogram mTimeToFirstFrame = new LatencyHistogram();
+    private final LatencyHistogram mSeekLatency = new LatencyHistogram();
+    private final LatencyHistogram mTimeToTimeout = new LatencyHistogram();
+    private final LatencyHistogram mRecoveryLatency = new LatencyHistogram();
+    private final LatencyHistogram mPlayRangeBoundaryError = new LatencyHistogram();
+    private final LatencyHistogram[] mStateDwell;
+
+    private volatile long mSessionCount;
+    private volatile long mStallCount;
+    private volatile long mPrepareTimeoutCount;
+    private volatile long mStallTimeoutCount;
+    private volatile long mRecoverySuccessCount;
+    private volatile long mRecoveryFailureCount;
+    private volatile long mPlayRangeLoopCount;
+
+    private long mStateEnterNanos;
+    private long mPrepareStartNanos;
+    private long mStartRequestNanos;
+    private long mSeekStartNanos;
+
+    PlayerMetrics()
+    {
+        final FMediaPlayer.State[] states = FMediaPlayer.State.values();
+        mStateDwell = new LatencyHistogram[states.length];
+        for (int i = 0; i < states.length; i++)
+        {
+            mStateDwell[i] = new LatencyHistogram();
+        }
+        mStateEnterNanos = PlaybackClock.nowNanos();
+    }
+
+    /**
+     * 返回所有开启了统计的播放器的快照
+     *
+     * @return
+     */
+    public static List<Snapshot> snapshotAll()
+    {
+        final List<Snapshot> list = new ArrayList<>(sLiveMetrics.size());
+        sLiveMetrics.foreach(new ObserverHolder.ForeachCallback<PlayerMetrics>()
+        {
+            @Override
+            public void onNext(PlayerMetrics observer)
+            {
+                list.add(observer.snapshot());
+            }
+        });
+        return list;
+    }
+
+    static void register(PlayerMetrics metrics)
+    {
+        sLiveMetrics.add(metrics);
+    }
+
+    static void unregister(PlayerMetrics metrics)
+    {
+        sLiveMetrics.remove(metrics);
+    }
+
+    //----------record start----------
+
+    void onStateChanged(FMediaPlayer.State oldState, FMediaPlayer.State newState)
+    {
+        final long now = PlaybackClock.nowNanos();
+        mStateDwell[oldState.ordinal()].record(now - mStateEnterNanos);
+        mStateEnterNanos = now;
+
+        switch (newState)
+        {
+            case Initialized:
+                mSessionCount++;
+                mStartRequestNanos = 0;
+                mSeekStartNanos = 0;
+                break;
+            case Preparing:
+                mPrepareStartNanos = now;
+                break;
+            case Prepared:
+                if (mPrepareStartNanos > 0)
+                {
+                    mPrepareLatency.record(now - mPrepareStartNanos);
+                    mPrepareStartNanos = 0;
+                }
+                break;
+            case Idle:
+            case Released:
+                mPrepareStartNanos = 0;
+                mStartRequestNanos = 0;
+                mSeekStartNanos = 0;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 调用start()，从此刻开始计算首帧耗时
+     */
+    void onStartRequested()
+    {
+        if (mStartRequestNanos == 0)
+            mStartRequestNanos = PlaybackClock.nowNanos();
+    }
+
+    void onFirstFrame()
+    {
+        if (mStartRequestNanos > 0)
+        {
+            mTimeToFirstFrame.record(PlaybackClock.nowNanos() - mStartRequestNanos);
+            mStartRequestNanos = -1;
+        }
+    }
+
+    void onSeekStart()
+    {
+        mSeekStartNanos = PlaybackClock.nowNanos();
+    }
+
+    void onSeekComplete()
+    {
+        if (mSeekStartNanos > 0)
+        {
+            mSeekLatency.record(PlaybackClock.nowNanos() - mSeekStartNanos);
+            mSeekStartNanos = 0;
+        }
+    }
+
+    /**
+     * 开始卡顿，由{@link PlaybackQoe}判断，播放中开始缓冲或者进入播放状态的时候已经在缓冲
+     */
+    void onStall()
+    {
+        mStallCount++;
+    }
+
+    /**
+     * 超时
+     *
+     * @param prepare      true-准备超时，false-缓冲卡顿超时
+     * @param elapsedNanos 从开始准备或者开始缓冲到判定超时的时长
+     */
+    void onTimeout(boolean prepare, long elapsedNanos)
+    {
+        if (prepare)
+            mPrepareTimeoutCount++;
+        else
+            mStallTimeoutCount++;
+        mTimeToTimeout.record(elapsedNanos);
+    }
+
+    /**
+     * 自动恢复结束
+     *
+     * @param success      true-恢复成功，false-重试次数用完
+     * @param elapsedNanos 从第一次出错到恢复结束的时长
+     */
+    void onRecovery(boolean success, long elapsedNanos)
+    {
+        if (success)
+        {
+            mRecoverySuccessCount++;
+            mRecoveryLatency.record(elapsedNanos);
+        } else
+        {
+            mRecoveryFailureCount++;
+        }
+    }
+
+    /**
+     * 到达播放范围的结尾
+     *
+     * @param loop       true-回到开始位置，false-停在结尾
+     * @param errorNanos 回到开始位置的时刻与播放到结尾的时刻之差，或者停下时的位置与结尾之差，取绝对值
+     */
+    void onPlayRangeBoundary(boolean loop, long errorNanos)
+    {
+        if (loop)
+            mPlayRangeLoopCount++;
+        mPlayRangeBoundaryError.record(errorNanos);
+    }
+
+    //----------record end----------
+
+    /**
+     * 准备耗时，从{@link FMediaPlayer.State#Preparing}到{@link FMediaPlayer.State#Prepared}
+     *
+     * @return
+     */
+    public LatencyHistogram getPrepareLatency()
+    {
+        return mPrepareLatency;
+    }
+
+    /**
+     * 首帧耗时，从设置数据后第一次调用start()到视频开始渲染
+     *
+     * @return
+     */
+    public LatencyHistogram getTimeToFirstFrame()
+    {
+        return mTimeToFirstFrame;
+    }
+
+    /**
+     * seek耗时，从发起seek到seek完成
+     *
+     * @return
+     */
+    public LatencyHistogram getSeekLatency()
+    {
+        return mSeekLatency;
+    }
+
+    /**
+     * 超时耗时，从开始准备或者开始缓冲到判定超时
+     *
+     * @return
+     */
+    public LatencyHistogram getTimeToTimeout()
+    {
+        return mTimeToTimeout;
+    }
+
+    /**
+     * 自动恢复耗时，从出错到重新准备并seek到原来的位置，只统计恢复成功的
+     *
+     * @return
+     */
+    public LatencyHistogram getRecoveryLatency()
+    {
+        return mRecoveryLatency;
+    }
+
+    /**
+     * 播放范围结尾的误差，见{@link FMediaPlayer#setPlayRange(int, int, int)}
+     *
+     * @return
+     */
+    public LatencyHistogram getPlayRangeBoundaryError()
+    {
+        return mPlayRangeBoundaryError;
+    }
+
+    /**
+     * 某个状态的停留时长
+     *
+     * @param state
+     * @return
+     */
+    public LatencyHistogram getStateDwell(FMediaPlayer.State state)
+    {
+        return mStateDwell[state.ordinal()];
+    }
+
+    /**
+     * 返回设置数据的次数
+     *
+     * @return
+     */
+    public long getSessionCount()
+    {
+        return mSessionCount;
+    }
+
+    /**
+     * 返回卡顿的次数，和{@link PlaybackQoe#getTotalRebufferCount()}的判断一致
+     *
+     * @return
+     */
+    public long getStallCount()
+    {
+        return mStallCount;
+    }
+
+    /**
+     * 返回准备超时的次数
+     *
+     * @return
+     */
+    public long getPrepareTimeoutCount()
+    {
+        return mPrepareTimeoutCount;
+    }
+
+    /**
+     * 返回缓冲卡顿超时的次数
+     *
+     * @return
+     */
+    public long getStallTimeoutCount()
+    {
+        return mStallTimeoutCount;
+    }
+
+    /**
+     * 返回自动恢复成功的次数
+     *
+     * @return
+     */
+    public long getRecoverySuccessCount()
+    {
+        return mRecoverySuccessCount;
+    }
+
+    /**
+     * 返回自动恢复失败的次数
+     *
+     * @return
+     */
+    public long getRecoveryFailureCount()
+    {
+        return mRecoveryFailureCount;
+    }
+
+    /**
+     * 返回播放范围回到开始位置的次数
+     *
+     * @return
+     */
+    public long getPlayRangeLoopCount()
+    {
+        return mPlayRangeLoopCount;
+    }
+
+    /**
+     * 返回当前数据的快照
+     *
+     * @return
+     */
+    public Snapshot snapshot()
+    {
+        final LatencyHistogram[] dwell = new LatencyHistogram[mStateDwell.length];
+        for (int i = 0; i < dwell.length; i++)
+        {
+            dwell[i] = mStateDwell[i].copy();
+        }
+        return new Snapshot(mSessionCount, mStallCount, mPrepareTimeoutCount, mStallTimeoutCount,
+                mRecoverySuccessCount, mRecoveryFailureCount, mPlayRangeLoopCount,
+                mPrepareLatency.copy(), mTimeToFirstFrame.copy(), mSeekLatency.copy(), mTimeToTimeout.copy(),
+                mRecoveryLatency.copy(), mPlayRangeBoundaryError.copy(), dwell);
+    }
+
+    public static final class Snapshot
+    {
+        public final long sessionCount;
+        public final long stallCount;
+        public final long prepareTimeoutCount;
+        public final long stallTimeoutCount;
+        public final long recoverySuccessCount;
+        public final long recoveryFailureCount;
+        public final long playRangeLoopCount;
+        public final LatencyHistogram prepareLatency;
+        public final LatencyHistogram timeToFirstFrame;
+        public final LatencyHistogram seekLatency;
+        public final LatencyHistogram timeToTimeout;
+        public final LatencyHistogram recoveryLatency;
+        public final LatencyHistogram playRangeBoundaryError;
+        private final LatencyHistogram[] mStateDwell;
+
+        Snapshot(long sessionCount, long stallCount, long prepareTimeoutCount, long stallTimeoutCount,
+                 long recoverySuccessCount, long recoveryFailureCount, long playRangeLoopCount,
+                 LatencyHistogram prepareLatency, LatencyHistogram timeToFirstFrame,
+                 LatencyHistogram seekLatency, LatencyHistogram timeToTimeout,
+                 LatencyHistogram recoveryLatency, LatencyHistogram playRangeBoundaryError,
+                 LatencyHistogram[] stateDwell)
+        {
+            this.sessionCount = sessionCount;
+            this.stallCount = stallCount;
+            this.prepareTimeoutCount = prepareTimeoutCount;
+            this.stallTimeoutCount = stallTimeoutCount;
+            this.recoverySuccessCount = recoverySuccessCount;
+            this.recoveryFailureCount = recoveryFailureCount;
+            this.playRangeLoopCount = playRangeLoopCount;
+            this.prepareLatency = prepareLatency;
+            this.timeToFirstFrame = timeToFirstFrame;
+            this.seekLatency = seekLatency;
+            this.timeToTimeout = timeToTimeout;
+            this.recoveryLatency = recoveryLatency;
+            this.playRangeBoundaryError = playRangeBoundaryError;
+            mStateDwell = stateDwell;
+        }
+
+        public LatencyHistogram getStateDwell(FMediaPlayer.State state)
+        {
+            return mStateDwell[state.ordinal()];
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.sd.lib.player;
+
+import com.sd.lib.player.FMediaPlayer.State;
+
+/**
+ * 播放器状态机，命令在各个状态下是否合法以及要执行的操作由预先计算的表决定，不依赖android运行环境
+ */
+final class PlayerStateMachine
+{
+    static final int CMD_START = 0;
+    static final int CMD_PAUSE = 1;
+    static final int CMD_STOP = 2;
+    static final int CMD_GET_DURATION = 3;
+    static final int CMD_GET_POSITION = 4;
+    static final int COMMAND_COUNT = 5;
+
+    static final int ACTION_NONE = 0;
+    static final int ACTION_PREPARE = 1;
+    static final int ACTION_START = 2;
+    static final int ACTION_PAUSE = 3;
+    static final int ACTION_STOP = 4;
+    static final int ACTION_QUERY = 5;
+
+    /**
+     * [状态ordinal * COMMAND_COUNT + 命令] -> 操作
+     */
+    private static final byte[] TABLE = new byte[State.values().length * COMMAND_COUNT];
+
+    static
+    {
+        define(State.Initialized, CMD_START, ACTION_PREPARE);
+
+        define(State.Prepared, CMD_START, ACTION_START);
+        define(State.Prepared, CMD_STOP, ACTION_STOP);
+
+        define(State.Playing, CMD_PAUSE, ACTION_PAUSE);
+        define(State.Playing, CMD_STOP, ACTION_STOP);
+        define(State.Playing, CMD_GET_DURATION, ACTION_QUERY);
+        define(State.Playing, CMD_GET_POSITION, ACTION_QUERY);
+
+        define(State.Paused, CMD_START, ACTION_START);
+        define(State.Paused, CMD_STOP, ACTION_STOP);
+        define(State.Paused, CMD_GET_DURATION, ACTION_QUERY);
+        define(State.Paused, CMD_GET_POSITION, ACTION_QUERY);
+
+        define(State.Completed, CMD_START, ACTION_START);
+        define(State.Completed, CMD_STOP, ACTION_STOP);
+        define(State.Completed, CMD_GET_DURATION, ACTION_QUERY);
+        define(State.Completed, CMD_GET_POSITION, ACTION_QUERY);
+
+        define(State.Stopped, CMD_START, ACTION_PREPARE);
+        define(State.Stopped, CMD_GET_DURATION, ACTION_QUERY);
+    }
+
+    private static void define(State state, int command, int action)
+    {
+        TABLE[state.ordinal() * COMMAND_COUNT + command] = (byte) action;
+    }
+
+    /**
+     * 返回某个状态下执行命令对应的操作
+     *
+     * @param state
+     * @param command
+     * @return
+     */
+    static int getAction(State state, int command)
+    {
+        return TABLE[state.ordinal() * COMMAND_COUNT + command];
+    }
+
+    private final PlayerEngine mEngine;
+    private final StateListener mStateListener;
+
+    private volatile State mState = State.Idle;
+
+    PlayerStateMachine(PlayerEngine engine, StateListener stateListener)
+    {
+        if (engine == null)
+            throw new IllegalArgumentException("engine is null");
+
+        mEngine = engine;
+        mStateListener = stateListener;
+    }
+
+    public State getState()
+    {
+        return mState;
+    }
+
+    /**
+     * 设置状态，用于数据设置、准备完成、播放完毕、重置、释放等由外部事件引起的状态变化
+     *
+     * @param state
+     */
+    public void setState(State state)
+    {
+        final State oldState = mState;
+        if (oldState != state)
+        {
+            mState = state;
+            if (mStateListener != null)
+                mStateListener.onStateChanged(oldState, state);
+        }
+    }
+
+    /**
+     * 执行命令，当前状态下不合法的命令会被忽略
+     *
+     * @param command {@link #CMD_START}，{@link #CMD_PAUSE}，{@link #CMD_STOP}
+     * @return true-命令已执行
+     */
+    public boolean execute(int command)
+    {
+        switch (getAction(mState, command))
+        {
+            case ACTION_PREPARE:
+                mEngine.prepareAsync();
+                setState(State.Preparing);
+                return true;
+            case ACTION_START:
+                mEngine.start();
+                setState(State.Playing);
+                return true;
+            case ACTION_PAUSE:
+                mEngine.pause();
+                setState(State.Paused);
+                return true;
+            case ACTION_STOP:
+                mEngine.stop();
+                setState(State.Stopped);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 命令在当前状态下是否合法
+     *
+     * @param command
+     * @return
+     */
+    public boolean canExecute(int command)
+    {
+        return getAction(mState, command) != ACTION_NONE;
+    }
+
+    public int getDuration()
+    {
+        return getAction(mState, CMD_GET_DURATION) == ACTION_QUERY ? mEngine.getDuration() : 0;
+    }
+
+    public int getCurrentPosition()
+    {
+        return getAction(mState, CMD_GET_POSITION) == ACTION_QUERY ? mEngine.getCurrentPosition() : 0;
+    }
+
+    interface StateListener
+    {
+        void onStateChanged(State oldState, State newState);
+    }
+}
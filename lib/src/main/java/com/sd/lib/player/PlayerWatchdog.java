@@ -0,0 +1,109 @@
+package com.sd.lib.player;
+
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 所有播放器共享的超时触发器，所有超时任务在同一个线程计时，卡住的MediaPlayer在后台线程重置和释放
+ */
+final class PlayerWatchdog
+{
+    private static final PlayerWatchdog INSTANCE = new PlayerWatchdog();
+
+    private Handler mHandler;
+    private ExecutorService mReleaseExecutor;
+
+    private PlayerWatchdog()
+    {
+    }
+
+    public static PlayerWatchdog getInstance()
+    {
+        return INSTANCE;
+    }
+
+    private Handler getHandler()
+    {
+        if (mHandler == null)
+        {
+            final HandlerThread thread = new HandlerThread("FMediaPlayerWatchdog");
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        return mHandler;
+    }
+
+    /**
+     * 安排超时任务，同一个任务重复安排的话以最后一次为准
+     *
+     * @param task
+     * @param timeout 超时时间（毫秒）
+     */
+    public synchronized void schedule(Runnable task, long timeout)
+    {
+        final Handler handler = getHandler();
+        handler.removeCallbacks(task);
+        handler.postDelayed(task, timeout);
+    }
+
+    /**
+     * 取消超时任务
+     *
+     * @param task
+     */
+    public synchronized void cancel(Runnable task)
+    {
+        if (mHandler != null)
+            mHandler.removeCallbacks(task);
+    }
+
+    /**
+     * 在后台线程重置并释放MediaPlayer，卡住的MediaPlayer调用reset()可能会阻塞很久
+     *
+     * @param player
+     */
+    public void releaseAsync(final MediaPlayer player)
+    {
+        if (player == null)
+            return;
+
+        getReleaseExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    player.reset();
+                } catch (Exception e)
+                {
+                    // 忽略，继续释放
+                }
+                player.release();
+            }
+        });
+    }
+
+    private synchronized ExecutorService getReleaseExecutor()
+    {
+        if (mReleaseExecutor == null)
+        {
+            mReleaseExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    final Thread thread = new Thread(r, "FMediaPlayerRelease");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mReleaseExecutor;
+    }
+}
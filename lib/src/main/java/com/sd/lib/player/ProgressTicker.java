@@ -0,0 +1,118 @@
+package com.sd.lib.player;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 所有播放器共享的进度触发器，在主线程按固定间隔通知处于播放状态的播放器
+ */
+final class ProgressTicker
+{
+    private static final FMediaPlayer[] EMPTY = new FMediaPlayer[0];
+    private static final ProgressTicker INSTANCE = new ProgressTicker();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private volatile FMediaPlayer[] mPlayers = EMPTY;
+    private volatile long mInterval = 250;
+
+    private ProgressTicker()
+    {
+    }
+
+    public static ProgressTicker getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * 设置触发间隔（毫秒）
+     *
+     * @param interval
+     */
+    public void setInterval(long interval)
+    {
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval must be > 0");
+        mInterval = interval;
+    }
+
+    public long getInterval()
+    {
+        return mInterval;
+    }
+
+    public synchronized void register(FMediaPlayer player)
+    {
+        final FMediaPlayer[] players = mPlayers;
+        for (FMediaPlayer item : players)
+        {
+            if (item == player)
+                return;
+        }
+
+        final FMediaPlayer[] newPlayers = new FMediaPlayer[players.length + 1];
+        System.arraycopy(players, 0, newPlayers, 0, players.length);
+        newPlayers[players.length] = player;
+        mPlayers = newPlayers;
+
+        if (players.length == 0)
+        {
+            mHandler.removeCallbacks(mTickRunnable);
+            mHandler.postDelayed(mTickRunnable, mInterval);
+        }
+    }
+
+    public synchronized void unregister(FMediaPlayer player)
+    {
+        final FMediaPlayer[] players = mPlayers;
+        int index = -1;
+        for (int i = 0; i < players.length; i++)
+        {
+            if (players[i] == player)
+            {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0)
+            return;
+
+        if (players.length == 1)
+        {
+            mPlayers = EMPTY;
+            mHandler.removeCallbacks(mTickRunnable);
+            return;
+        }
+
+        final FMediaPlayer[] newPlayers = new FMediaPlayer[players.length - 1];
+        System.arraycopy(players, 0, newPlayers, 0, index);
+        System.arraycopy(players, index + 1, newPlayers, index, players.length - index - 1);
+        mPlayers = newPlayers;
+    }
+
+    private final Runnable mTickRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            final FMediaPlayer[] players = mPlayers;
+            if (players.length <= 0)
+                return;
+
+            for (FMediaPlayer item : players)
+            {
+                item.dispatchProgress();
+            }
+
+            synchronized (ProgressTicker.this)
+            {
+                if (mPlayers.length > 0)
+                {
+                    mHandler.removeCallbacks(this);
+                    mHandler.postDelayed(this, mInterval);
+                }
+            }
+        }
+    };
+}
@@ -0,0 +1,162 @@
+package com.sd.lib.player;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 所有播放器共享的音量渐变触发器，有渐变的时候在主线程按固定间隔推进所有渐变，没有渐变的时候停止
+ */
+final class RampScheduler
+{
+    private static final VolumeRamp[] EMPTY = new VolumeRamp[0];
+    private static final RampScheduler INSTANCE = new RampScheduler();
+
+    /**
+     * 推进间隔（毫秒）
+     */
+    private static final long INTERVAL = 10;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private volatile VolumeRamp[] mRamps = EMPTY;
+    private volatile long mNextTickNanos;
+
+    private RampScheduler()
+    {
+    }
+
+    public static RampScheduler getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * 从当前时刻开始渐变，已经在渐变的话重新开始
+     *
+     * @param ramp
+     */
+    public synchronized void start(VolumeRamp ramp)
+    {
+        ramp.mStartNanos = PlaybackClock.nowNanos();
+        ramp.mGeneration++;
+
+        final VolumeRamp[] ramps = mRamps;
+        for (VolumeRamp item : ramps)
+        {
+            if (item == ramp)
+                return;
+        }
+
+        final VolumeRamp[] newRamps = new VolumeRamp[ramps.length + 1];
+        System.arraycopy(ramps, 0, newRamps, 0, ramps.length);
+        newRamps[ramps.length] = ramp;
+        mRamps = newRamps;
+
+        if (ramps.length == 0)
+        {
+            mNextTickNanos = ramp.mStartNanos + INTERVAL * 1000000L;
+            mHandler.removeCallbacks(mTickRunnable);
+            mHandler.postDelayed(mTickRunnable, INTERVAL);
+        }
+    }
+
+    /**
+     * 取消渐变，不会通知{@link VolumeRamp.Target#onRampEnd()}
+     *
+     * @param ramp
+     * @return true-取消之前正在渐变
+     */
+    public synchronized boolean cancel(VolumeRamp ramp)
+    {
+        final VolumeRamp[] ramps = mRamps;
+        int index = -1;
+        for (int i = 0; i < ramps.length; i++)
+        {
+            if (ramps[i] == ramp)
+            {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0)
+            return false;
+
+        if (ramps.length == 1)
+        {
+            mRamps = EMPTY;
+            mHandler.removeCallbacks(mTickRunnable);
+            return true;
+        }
+
+        final VolumeRamp[] newRamps = new VolumeRamp[ramps.length - 1];
+        System.arraycopy(ramps, 0, newRamps, 0, index);
+        System.arraycopy(ramps, index + 1, newRamps, index, ramps.length - index - 1);
+        mRamps = newRamps;
+        return true;
+    }
+
+    /**
+     * 完成的渐变在推进之后没有重新开始的话移除
+     *
+     * @param ramp
+     * @param generation 推进之前的{@link VolumeRamp#mGeneration}
+     * @return true-移除成功，需要通知完成
+     */
+    private synchronized boolean finish(VolumeRamp ramp, int generation)
+    {
+        if (ramp.mGeneration != generation)
+            return false;
+        return cancel(ramp);
+    }
+
+    /**
+     * 是否正在渐变
+     *
+     * @param ramp
+     * @return
+     */
+    public boolean isRunning(VolumeRamp ramp)
+    {
+        for (VolumeRamp item : mRamps)
+        {
+            if (item == ramp)
+                return true;
+        }
+        return false;
+    }
+
+    private final Runnable mTickRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            final VolumeRamp[] ramps = mRamps;
+            if (ramps.length <= 0)
+                return;
+
+            final long now = PlaybackClock.nowNanos();
+            final long lateness = now - mNextTickNanos;
+            for (VolumeRamp item : ramps)
+            {
+                // 前面的回调里可能取消了后面的渐变
+                if (!isRunning(item))
+                    continue;
+
+                // 完成的渐变先移除再通知，回调里可以重新开始；其他线程在推进的过程中重新开始的话继续推进
+                final int generation = item.mGeneration;
+                if (item.step(now, lateness) && finish(item, generation))
+                    item.finish();
+            }
+
+            synchronized (RampScheduler.this)
+            {
+                if (mRamps.length > 0)
+                {
+                    mNextTickNanos = now + INTERVAL * 1000000L;
+                    mHandler.removeCallbacks(this);
+                    mHandler.postDelayed(this, INTERVAL);
+                }
+            }
+        }
+    };
+}
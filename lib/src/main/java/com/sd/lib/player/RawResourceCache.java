@@ -0,0 +1,173 @@
+package com.sd.lib.player;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * raw资源文件描述符缓存，按rawResId缓存打开的{@link AssetFileDescriptor}，超过容量的时候关闭最久没用的
+ * <p>
+ * 每个播放器一个，重置播放器后再设置同一个raw资源不需要重新打开，播放器release()的时候全部关闭
+ */
+public class RawResourceCache
+{
+    private static final AtomicInteger sOpenCount = new AtomicInteger();
+
+    private final LinkedHashMap<Integer, AssetFileDescriptor> mMap = new LinkedHashMap<Integer, AssetFileDescriptor>(8, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, AssetFileDescriptor> eldest)
+        {
+            if (size() > mMaxSize)
+            {
+                close(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private int mMaxSize;
+    private long mHitCount;
+    private long mMissCount;
+
+    RawResourceCache(int maxSize)
+    {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * 返回所有播放器缓存的文件描述符数量
+     *
+     * @return
+     */
+    public static int getTotalOpenCount()
+    {
+        return sOpenCount.get();
+    }
+
+    /**
+     * 设置最多缓存的文件描述符数量，0表示不缓存
+     *
+     * @param maxSize
+     */
+    public synchronized void setMaxSize(int maxSize)
+    {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize must be >= 0");
+
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 返回缓存的文件描述符，没有的话打开并缓存
+     *
+     * @param rawResId
+     * @param context
+     * @return 缓存容量为0的时候返回的描述符需要调用方关闭，可以用{@link #isCached(AssetFileDescriptor)}判断
+     */
+    synchronized AssetFileDescriptor open(int rawResId, Context context)
+    {
+        final AssetFileDescriptor cached = mMap.get(rawResId);
+        if (cached != null)
+        {
+            mHitCount++;
+            return cached;
+        }
+
+        mMissCount++;
+        final AssetFileDescriptor afd = context.getResources().openRawResourceFd(rawResId);
+        if (afd == null)
+            throw new IllegalArgumentException("raw resource is compressed or not found: " + rawResId);
+
+        if (mMaxSize > 0)
+        {
+            sOpenCount.incrementAndGet();
+            mMap.put(rawResId, afd);
+        }
+        return afd;
+    }
+
+    /**
+     * 描述符是否在缓存中
+     *
+     * @param afd
+     * @return
+     */
+    synchronized boolean isCached(AssetFileDescriptor afd)
+    {
+        return mMap.containsValue(afd);
+    }
+
+    /**
+     * 关闭并移除所有缓存的描述符
+     */
+    public synchronized void clear()
+    {
+        trimToSize(0);
+    }
+
+    private void trimToSize(int maxSize)
+    {
+        final Iterator<AssetFileDescriptor> it = mMap.values().iterator();
+        while (mMap.size() > maxSize && it.hasNext())
+        {
+            close(it.next());
+            it.remove();
+        }
+    }
+
+    private static void close(AssetFileDescriptor afd)
+    {
+        sOpenCount.decrementAndGet();
+        closeQuietly(afd);
+    }
+
+    static void closeQuietly(AssetFileDescriptor afd)
+    {
+        try
+        {
+            afd.close();
+        } catch (IOException e)
+        {
+            // 忽略
+        }
+    }
+
+    /**
+     * 返回当前缓存的文件描述符数量
+     *
+     * @return
+     */
+    public synchronized int getOpenCount()
+    {
+        return mMap.size();
+    }
+
+    public synchronized long getHitCount()
+    {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return mMissCount;
+    }
+
+    /**
+     * 返回命中率
+     *
+     * @return [0-1]
+     */
+    public synchronized float getHitRatio()
+    {
+        final long total = mHitCount + mMissCount;
+        return total == 0 ? 0 : (float) mHitCount / total;
+    }
+}
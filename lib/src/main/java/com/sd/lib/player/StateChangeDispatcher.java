@@ -0,0 +1,93 @@
+package com.sd.lib.player;
+
+import com.sd.lib.player.FMediaPlayer.OnStateChangeCallback;
+import com.sd.lib.player.FMediaPlayer.State;
+
+/**
+ * 状态变化回调的分发器，取出队列里所有的状态变化按顺序通知，回调里引起的状态变化会加入队列，在本次分发里继续通知
+ * <p>
+ * 加入队列和分发都不创建对象
+ */
+final class StateChangeDispatcher implements Runnable, ObserverHolder.ForeachCallback<OnStateChangeCallback>
+{
+    private final FMediaPlayer mPlayer;
+    private final StateChangeQueue mQueue = new StateChangeQueue();
+    /**
+     * 没有回调的时候为null，状态变化不加入队列
+     */
+    private volatile ObserverHolder<OnStateChangeCallback> mHolder;
+
+    private State mOldState;
+    private State mNewState;
+
+    /**
+     * @param player 回调的时候传给{@link OnStateChangeCallback}
+     */
+    StateChangeDispatcher(FMediaPlayer player)
+    {
+        mPlayer = player;
+    }
+
+    public void add(OnStateChangeCallback callback)
+    {
+        if (mHolder == null)
+            mHolder = new ObserverHolder<>();
+
+        mHolder.add(callback);
+    }
+
+    public void remove(OnStateChangeCallback callback)
+    {
+        final ObserverHolder<OnStateChangeCallback> holder = mHolder;
+        if (holder != null)
+        {
+            holder.remove(callback);
+            if (holder.isEmpty())
+                mHolder = null;
+        }
+    }
+
+    public void clear()
+    {
+        mHolder = null;
+    }
+
+    /**
+     * 添加状态变化
+     *
+     * @param oldState
+     * @param newState
+     * @return true-需要安排一次分发，false-没有回调或者已经安排过分发
+     */
+    public boolean offer(State oldState, State newState)
+    {
+        if (mHolder == null)
+            return false;
+        return mQueue.offer(oldState, newState);
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            final int item = mQueue.poll();
+            if (item < 0)
+                return;
+
+            final ObserverHolder<OnStateChangeCallback> holder = mHolder;
+            if (holder == null)
+                continue;
+
+            mOldState = StateChangeQueue.getOldState(item);
+            mNewState = StateChangeQueue.getNewState(item);
+            holder.foreach(this);
+        }
+    }
+
+    @Override
+    public void onNext(OnStateChangeCallback observer)
+    {
+        observer.onStateChanged(mPlayer, mOldState, mNewState);
+    }
+}
@@ -0,0 +1,78 @@
+package com.sd.lib.player;
+
+import com.sd.lib.player.FMediaPlayer.State;
+
+/**
+ * 等待通知的状态变化队列，状态变化按顺序保存在环形数组里，连续的状态变化只需要安排一次分发
+ */
+final class StateChangeQueue
+{
+    private int[] mItems = new int[16];
+    private int mHead;
+    private int mSize;
+    private boolean mScheduled;
+
+    /**
+     * 添加状态变化
+     *
+     * @param oldState
+     * @param newState
+     * @return true-需要安排一次分发，false-已经安排过分发，还没执行
+     */
+    public synchronized boolean offer(State oldState, State newState)
+    {
+        if (mSize == mItems.length)
+            grow();
+
+        mItems[(mHead + mSize) % mItems.length] = (oldState.ordinal() << 8) | newState.ordinal();
+        mSize++;
+
+        if (mScheduled)
+            return false;
+
+        mScheduled = true;
+        return true;
+    }
+
+    /**
+     * 取出最早的状态变化，队列空了的话结束本次分发
+     *
+     * @return 用{@link #getOldState(int)}和{@link #getNewState(int)}解析，队列为空返回-1
+     */
+    public synchronized int poll()
+    {
+        if (mSize == 0)
+        {
+            mScheduled = false;
+            return -1;
+        }
+
+        final int item = mItems[mHead];
+        mHead = (mHead + 1) % mItems.length;
+        mSize--;
+        return item;
+    }
+
+    private void grow()
+    {
+        final int[] items = new int[mItems.length * 2];
+        for (int i = 0; i < mSize; i++)
+        {
+            items[i] = mItems[(mHead + i) % mItems.length];
+        }
+        mItems = items;
+        mHead = 0;
+    }
+
+    private static final State[] STATES = State.values();
+
+    public static State getOldState(int item)
+    {
+        return STATES[item >> 8];
+    }
+
+    public static State getNewState(int item)
+    {
+        return STATES[item & 0xFF];
+    }
+}
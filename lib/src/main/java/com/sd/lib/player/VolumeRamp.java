@@ -0,0 +1,74 @@
+package com.sd.lib.player;
+
+/**
+ * 一次音量渐变，由{@link RampScheduler}在主线程按固定间隔推进，可以重复使用
+ */
+final class VolumeRamp
+{
+    private final Target mTarget;
+    private final LatencyHistogram mJitter;
+
+    volatile long mStartNanos;
+    private volatile long mDurationNanos;
+    /**
+     * 每次{@link RampScheduler#start(VolumeRamp)}加1，推进的过程中重新开始的话这一步的完成不算数
+     */
+    volatile int mGeneration;
+
+    /**
+     * @param target
+     * @param jitter 记录每一步相对于计划时间的延迟，可以为null
+     */
+    VolumeRamp(Target target, LatencyHistogram jitter)
+    {
+        mTarget = target;
+        mJitter = jitter;
+    }
+
+    /**
+     * 设置渐变时长
+     *
+     * @param duration 时长（毫秒）
+     */
+    void setDuration(long duration)
+    {
+        mDurationNanos = Math.max(1, duration) * 1000000L;
+    }
+
+    /**
+     * 推进一步
+     *
+     * @param now      当前时间（纳秒）
+     * @param lateness 这一步相对于计划时间的延迟（纳秒）
+     * @return true-渐变已经完成
+     */
+    boolean step(long now, long lateness)
+    {
+        if (mJitter != null)
+            mJitter.record(lateness);
+
+        final float progress = Math.min(1.0f, (float) (now - mStartNanos) / mDurationNanos);
+        mTarget.onRampStep(progress);
+        return progress >= 1.0f;
+    }
+
+    void finish()
+    {
+        mTarget.onRampEnd();
+    }
+
+    interface Target
+    {
+        /**
+         * 渐变进度变化
+         *
+         * @param progress [0-1]
+         */
+        void onRampStep(float progress);
+
+        /**
+         * 渐变完成，进度1已经通过{@link #onRampStep(float)}通知
+         */
+        void onRampEnd();
+    }
+}
@@ -0,0 +1,244 @@
+package com.sd.lib.player;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用本地http服务器验证缓存代理，代理只用到android的明文http检查，单元测试里直接允许
+ */
+public class FHttpCacheProxyTest
+{
+    private static final int SEGMENT_SIZE = HttpSegmentCache.SEGMENT_SIZE;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final byte[] mData = new byte[SEGMENT_SIZE * 3 + 1000];
+    private final AtomicInteger mUpstreamCount = new AtomicInteger();
+
+    private HttpServer mServer;
+    private String mBaseUrl;
+    private FHttpCacheProxy mProxy;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        new Random(1).nextBytes(mData);
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/media", new RangeHandler(true));
+        mServer.createContext("/stream", new RangeHandler(false));
+        mServer.start();
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (mProxy != null)
+            mProxy.stop();
+        mServer.stop(0);
+    }
+
+    @Test
+    public void testFullGet() throws IOException
+    {
+        mProxy = new FHttpCacheProxy(mFolder.newFolder(), 64L * SEGMENT_SIZE);
+        final String url = mProxy.getProxyUrl(mBaseUrl + "/media");
+        assertNotEquals(mBaseUrl + "/media", url);
+
+        final Response response = get(url, null);
+        assertEquals(200, response.code);
+        assertArrayEquals(mData, response.body);
+
+        // 第二次全部从缓存读取
+        final int upstreamCount = mUpstreamCount.get();
+        final long downloaded = mProxy.getBytesDownloaded();
+        assertArrayEquals(mData, get(url, null).body);
+        assertEquals(upstreamCount, mUpstreamCount.get());
+        assertEquals(downloaded, mProxy.getBytesDownloaded());
+        assertEquals(mData.length, mProxy.getBytesSaved());
+    }
+
+    @Test
+    public void testRangeGet() throws IOException
+    {
+        mProxy = new FHttpCacheProxy(mFolder.newFolder(), 64L * SEGMENT_SIZE);
+        final String url = mProxy.getProxyUrl(mBaseUrl + "/media");
+
+        final int start = SEGMENT_SIZE + 123;
+        final int end = SEGMENT_SIZE * 2 + 456;
+        final Response response = get(url, "bytes=" + start + "-" + end);
+        assertEquals(206, response.code);
+        assertEquals("bytes " + start + "-" + end + "/" + mData.length, response.contentRange);
+        assertArrayEquals(Arrays.copyOfRange(mData, start, end + 1), response.body);
+
+        final Response tail = get(url, "bytes=" + (mData.length - 10) + "-");
+        assertEquals(206, tail.code);
+        assertArrayEquals(Arrays.copyOfRange(mData, mData.length - 10, mData.length), tail.body);
+    }
+
+    @Test
+    public void testCacheHitAfterTrim() throws IOException
+    {
+        final long maxSize = 2L * SEGMENT_SIZE + 1024;
+        mProxy = new FHttpCacheProxy(mFolder.newFolder(), maxSize);
+        final String url = mProxy.getProxyUrl(mBaseUrl + "/media");
+
+        assertArrayEquals(mData, get(url, null).body);
+        assertTrue(mProxy.getCacheSize() <= maxSize);
+
+        // 最后两个分段还在缓存里
+        final int start = SEGMENT_SIZE * 2 + 10;
+        final long saved = mProxy.getBytesSaved();
+        final Response response = get(url, "bytes=" + start + "-");
+        assertEquals(206, response.code);
+        assertArrayEquals(Arrays.copyOfRange(mData, start, mData.length), response.body);
+        assertEquals(saved + mData.length - start, mProxy.getBytesSaved());
+
+        // 被淘汰的分段重新下载
+        assertArrayEquals(mData, get(url, null).body);
+        assertTrue(mProxy.getCacheSize() <= maxSize);
+    }
+
+    @Test
+    public void testPassThrough() throws IOException
+    {
+        mProxy = new FHttpCacheProxy(mFolder.newFolder(), 64L * SEGMENT_SIZE);
+        final String url = mProxy.getProxyUrl(mBaseUrl + "/stream");
+
+        final Response full = get(url, null);
+        assertEquals(200, full.code);
+        assertArrayEquals(mData, full.body);
+
+        final int start = SEGMENT_SIZE + 77;
+        final Response range = get(url, "bytes=" + start + "-");
+        assertEquals(206, range.code);
+        assertEquals("bytes " + start + "-" + (mData.length - 1) + "/*", range.contentRange);
+        assertArrayEquals(Arrays.copyOfRange(mData, start, mData.length), range.body);
+        assertEquals(0, mProxy.getCacheSize());
+    }
+
+    @Test
+    public void testRejectsRequestWithoutToken() throws IOException
+    {
+        mProxy = new FHttpCacheProxy(mFolder.newFolder(), 64L * SEGMENT_SIZE);
+        final String url = mProxy.getProxyUrl(mBaseUrl + "/media");
+        final String port = url.substring(0, url.indexOf('/', "http://".length()));
+
+        assertEquals(404, get(port + "/proxy?url=" + mBaseUrl + "/media", null).code);
+        assertEquals(0, mUpstreamCount.get());
+    }
+
+    private static Response get(String url, String range) throws IOException
+    {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null)
+            connection.setRequestProperty("Range", range);
+
+        final Response response = new Response();
+        response.code = connection.getResponseCode();
+        response.contentRange = connection.getHeaderField("Content-Range");
+        if (response.code < 400)
+        {
+            final InputStream input = connection.getInputStream();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8 * 1024];
+            int len;
+            while ((len = input.read(buffer)) >= 0)
+            {
+                output.write(buffer, 0, len);
+            }
+            input.close();
+            response.body = output.toByteArray();
+        }
+        connection.disconnect();
+        return response;
+    }
+
+    private static final class Response
+    {
+        int code;
+        String contentRange;
+        byte[] body;
+    }
+
+    /**
+     * 支持"bytes=start-"和"bytes=start-end"
+     */
+    private final class RangeHandler implements HttpHandler
+    {
+        /**
+         * false-不返回总长度，代理只能直接转发
+         */
+        private final boolean mHasLength;
+
+        RangeHandler(boolean hasLength)
+        {
+            mHasLength = hasLength;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            mUpstreamCount.incrementAndGet();
+
+            int start = 0;
+            int end = mData.length - 1;
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null)
+            {
+                final String value = range.substring("bytes=".length());
+                final int index = value.indexOf('-');
+                start = Integer.parseInt(value.substring(0, index));
+                if (index < value.length() - 1)
+                    end = Integer.parseInt(value.substring(index + 1));
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+            final int length = end - start + 1;
+            if (range != null)
+            {
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + end + "/" + (mHasLength ? String.valueOf(mData.length) : "*"));
+                exchange.sendResponseHeaders(206, mHasLength ? length : 0);
+            } else
+            {
+                exchange.sendResponseHeaders(200, mHasLength ? length : 0);
+            }
+
+            final OutputStream output = exchange.getResponseBody();
+            try
+            {
+                output.write(mData, start, length);
+            } catch (IOException e)
+            {
+                // 代理只读取需要的部分后断开
+            }
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.sd.lib.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证回收到池里的播放器恢复默认设置，android的类在单元测试里只返回默认值，不会真正创建MediaPlayer
+ */
+public class FMediaPlayerPoolTest
+{
+    @Test
+    public void testReleaseClearsSettings()
+    {
+        final FMediaPlayerPool pool = new FMediaPlayerPool(1, 1);
+        final FMediaPlayer player = pool.acquire();
+
+        player.setIdleReclaimTimeout(1000);
+        player.setPrepareTimeout(1000);
+        player.setBufferingStallTimeout(1000);
+        player.setAutoRecovery(3, 100);
+        player.setFailoverDataPaths("http://127.0.0.1/a.mp4");
+        player.setSeekMode(FMediaPlayer.SeekMode.Closest);
+        player.setMetricsEnabled(true);
+        player.getCuePointScheduler().add(1000, 1, new CuePointScheduler.Callback()
+        {
+            @Override
+            public void onCuePoint(FMediaPlayer player, long time, int id)
+            {
+            }
+        });
+
+        // reset()之后回到Idle，如果没有取消的话会安排空闲回收
+        player.setDataPath("http://127.0.0.1/b.mp4");
+        assertEquals(FMediaPlayer.State.Initialized, player.getState());
+        assertTrue(player.isReclaimScheduled());
+
+        pool.release(player);
+        assertEquals(1, pool.getIdleCount());
+
+        final FMediaPlayer reused = pool.acquire();
+        assertSame(player, reused);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(FMediaPlayer.State.Idle, reused.getState());
+        assertFalse(reused.isReclaimScheduled());
+        assertFalse(reused.isReclaimed());
+        assertEquals(FMediaPlayer.SeekMode.PreviousSync, reused.getSeekMode());
+        assertNull(reused.getMetrics());
+        assertEquals(0, reused.getCuePointScheduler().size());
+    }
+
+    @Test
+    public void testIgnoreForeignRelease()
+    {
+        final FMediaPlayerPool pool = new FMediaPlayerPool(1, 2);
+        final FMediaPlayer player = pool.acquire();
+        pool.release(player);
+        pool.release(player);
+        pool.release(new FMediaPlayer());
+
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getActiveCount());
+    }
+}
@@ -0,0 +1,239 @@
+package com.sd.lib.player;
+
+import com.sd.lib.player.FMediaPlayer.State;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 逐个检查状态和命令的组合，结果要和拆分状态机之前FMediaPlayer里的switch一致
+ */
+public class PlayerStateMachineTest
+{
+    private static final int DURATION = 1000;
+    private static final int POSITION = 500;
+
+    private static final String[] COMMAND_NAMES = {"start", "pause", "stop", "getDuration", "getPosition"};
+
+    /**
+     * 原来的start()，pause()，stop()里调用的MediaPlayer方法，不合法的话返回null
+     */
+    private static String expectedCall(State state, int command)
+    {
+        switch (command)
+        {
+            case PlayerStateMachine.CMD_START:
+                switch (state)
+                {
+                    case Initialized:
+                    case Stopped:
+                        return "prepareAsync";
+                    case Prepared:
+                    case Paused:
+                    case Completed:
+                        return "start";
+                    default:
+                        return null;
+                }
+            case PlayerStateMachine.CMD_PAUSE:
+                return state == State.Playing ? "pause" : null;
+            case PlayerStateMachine.CMD_STOP:
+                switch (state)
+                {
+                    case Prepared:
+                    case Playing:
+                    case Paused:
+                    case Completed:
+                        return "stop";
+                    default:
+                        return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    private static State expectedState(String call)
+    {
+        switch (call)
+        {
+            case "prepareAsync":
+                return State.Preparing;
+            case "start":
+                return State.Playing;
+            case "pause":
+                return State.Paused;
+            case "stop":
+                return State.Stopped;
+            default:
+                throw new IllegalArgumentException(call);
+        }
+    }
+
+    /**
+     * 原来的getDuration()
+     */
+    private static int expectedDuration(State state)
+    {
+        switch (state)
+        {
+            case Playing:
+            case Paused:
+            case Stopped:
+            case Completed:
+                return DURATION;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 原来的getCurrentPosition()
+     */
+    private static int expectedPosition(State state)
+    {
+        switch (state)
+        {
+            case Playing:
+            case Paused:
+            case Completed:
+                return POSITION;
+            default:
+                return 0;
+        }
+    }
+
+    @Test
+    public void testAllStatesAndCommands()
+    {
+        for (State state : State.values())
+        {
+            for (int command = 0; command < PlayerStateMachine.COMMAND_COUNT; command++)
+            {
+                final String cell = state + " x " + COMMAND_NAMES[command];
+
+                final FakeEngine engine = new FakeEngine();
+                final List<String> transitions = new ArrayList<>();
+                final PlayerStateMachine machine = new PlayerStateMachine(engine, new PlayerStateMachine.StateListener()
+                {
+                    @Override
+                    public void onStateChanged(State oldState, State newState)
+                    {
+                        transitions.add(oldState + "->" + newState);
+                    }
+                });
+                machine.setState(state);
+                transitions.clear();
+
+                if (command == PlayerStateMachine.CMD_GET_DURATION)
+                {
+                    assertEquals(cell, expectedDuration(state) != 0, machine.canExecute(command));
+                    assertEquals(cell, expectedDuration(state), machine.getDuration());
+                } else if (command == PlayerStateMachine.CMD_GET_POSITION)
+                {
+                    assertEquals(cell, expectedPosition(state) != 0, machine.canExecute(command));
+                    assertEquals(cell, expectedPosition(state), machine.getCurrentPosition());
+                } else
+                {
+                    final String call = expectedCall(state, command);
+                    assertEquals(cell, call != null, machine.canExecute(command));
+                    assertEquals(cell, call != null, machine.execute(command));
+                    if (call == null)
+                    {
+                        assertEquals(cell, 0, engine.calls.size());
+                        assertEquals(cell, 0, transitions.size());
+                        assertEquals(cell, state, machine.getState());
+                    } else
+                    {
+                        final State newState = expectedState(call);
+                        assertEquals(cell, 1, engine.calls.size());
+                        assertEquals(cell, call, engine.calls.get(0));
+                        assertEquals(cell, newState, machine.getState());
+                        if (newState == state)
+                        {
+                            assertEquals(cell, 0, transitions.size());
+                        } else
+                        {
+                            assertEquals(cell, 1, transitions.size());
+                            assertEquals(cell, state + "->" + newState, transitions.get(0));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSetStateNotifiesOnlyChanges()
+    {
+        final List<String> transitions = new ArrayList<>();
+        final PlayerStateMachine machine = new PlayerStateMachine(new FakeEngine(), new PlayerStateMachine.StateListener()
+        {
+            @Override
+            public void onStateChanged(State oldState, State newState)
+            {
+                transitions.add(oldState + "->" + newState);
+            }
+        });
+
+        assertEquals(State.Idle, machine.getState());
+        machine.setState(State.Idle);
+        machine.setState(State.Initialized);
+        machine.setState(State.Initialized);
+        machine.execute(PlayerStateMachine.CMD_START);
+        machine.setState(State.Prepared);
+        machine.execute(PlayerStateMachine.CMD_START);
+        machine.execute(PlayerStateMachine.CMD_START);
+        machine.execute(PlayerStateMachine.CMD_PAUSE);
+
+        assertEquals("[Idle->Initialized, Initialized->Preparing, Preparing->Prepared, Prepared->Playing, Playing->Paused]",
+                transitions.toString());
+    }
+
+    private static final class FakeEngine implements PlayerEngine
+    {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void prepareAsync()
+        {
+            calls.add("prepareAsync");
+        }
+
+        @Override
+        public void start()
+        {
+            calls.add("start");
+        }
+
+        @Override
+        public void pause()
+        {
+            calls.add("pause");
+        }
+
+        @Override
+        public void stop()
+        {
+            calls.add("stop");
+        }
+
+        @Override
+        public int getDuration()
+        {
+            calls.add("getDuration");
+            return DURATION;
+        }
+
+        @Override
+        public int getCurrentPosition()
+        {
+            calls.add("getCurrentPosition");
+            return POSITION;
+        }
+    }
+}